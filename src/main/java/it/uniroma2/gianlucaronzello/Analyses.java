@@ -2,8 +2,8 @@ package it.uniroma2.gianlucaronzello;
 
 import it.uniroma2.gianlucaronzello.Main.Result;
 import it.uniroma2.gianlucaronzello.utils.DatasetPaths;
-import weka.attributeSelection.BestFirst;
-import weka.attributeSelection.CfsSubsetEval;
+import it.uniroma2.gianlucaronzello.utils.Hashing;
+import it.uniroma2.gianlucaronzello.utils.Settings;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.bayes.NaiveBayes;
@@ -11,15 +11,16 @@ import weka.classifiers.lazy.IBk;
 import weka.classifiers.trees.RandomForest;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils;
 import weka.filters.Filter;
-import weka.filters.supervised.attribute.AttributeSelection;
 import weka.filters.supervised.instance.Resample;
 import weka.filters.supervised.instance.SMOTE;
 import weka.filters.supervised.instance.SpreadSubsample;
+import weka.filters.unsupervised.attribute.Remove;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
@@ -27,87 +28,153 @@ import java.util.logging.Logger;
 public class Analyses {
     private final String project;
     private final int lastRelease;
-    private Instances testing;
-    private Instances training;
+    // Istanze gia' in memoria: se presenti non si leggono i file arff
+    private final Instances trainingSource;
+    private final Instances testingSource;
     private static final Logger logger = Logger.getLogger("Perform analysis");
+    // Condivisa tra le release: ogni arff viene interpretato una volta sola
+    private static final InstancesCache cache = new InstancesCache(Settings.instancesCacheFolder(), Settings.instancesCacheSize());
+    private static final FeatureSelectionCache selectionCache = new FeatureSelectionCache(Settings.featureSelectionCacheFolder());
+    private int[] selectedAttributes;
     public Analyses(String project, int lastRelease){
+        this(project, lastRelease, null, null);
+    }
+    public Analyses(String project, int lastRelease, Instances training, Instances testing){
         this.project = project;
         this.lastRelease = lastRelease;
+        this.trainingSource = training;
+        this.testingSource = testing;
     }
-    public List<Result> performAnalysis()  {
-        List<Result> results = new ArrayList<>();
-        // No Feature Selection, No Balancing
-        for (AnalysisVariables.Classifiers classifierType : AnalysisVariables.Classifiers.values()) {
-            try {
-                this.training = loadInstance(project, lastRelease, "training");
-                this.testing = loadInstance(project, lastRelease, "testing");
-            }catch (Exception e) {
-                logger.info("errore in No Feature Selection, No Balancing ");
-            }
 
-            Classifier classifier = selectClassifier(classifierType);
-            Evaluation evaluation = analyze(classifier);
-            Result result;
-            if (evaluation != null) {
-                result = generateResult(evaluation, classifierType, AnalysisVariables.FeatureSelection.NONE, AnalysisVariables.Sampling.NONE);
-                results.add(result);
-            }
+    public record Combination(AnalysisVariables.Classifiers classifier,
+                              AnalysisVariables.FeatureSelection featureSelection,
+                              AnalysisVariables.Sampling sampling) {
+    }
 
+    public int lastRelease() {
+        return lastRelease;
+    }
+
+    // Memoria stimata per un task e impronta dei dati della release (null se non richiesta)
+    public record Profile(long taskMemory, String fingerprint) {
+    }
+
+    // Stima e impronta da un solo caricamento di training e testing
+    public Profile profile(boolean withFingerprint) throws IOException {
+        Instances training = loadInstance(project, lastRelease, "training");
+        Instances testing = loadInstance(project, lastRelease, "testing");
+        // Copie di training e testing, sampling e modello
+        long values = (long) (training.numInstances() + testing.numInstances()) * training.numAttributes();
+        String fingerprint = null;
+        if (withFingerprint) {
+            MessageDigest digest = Hashing.sha256();
+            digest.update(Hashing.contentHash(training).getBytes(StandardCharsets.UTF_8));
+            digest.update(Hashing.contentHash(testing).getBytes(StandardCharsets.UTF_8));
+            fingerprint = Hashing.toHex(digest);
         }
-        // Feature Selection, Balancing
-        for (AnalysisVariables.Sampling sampling : AnalysisVariables.Sampling.values()) {
-            for (AnalysisVariables.Classifiers classifierType : AnalysisVariables.Classifiers.values()) {
+        return new Profile(values * Double.BYTES * 8, fingerprint);
+    }
 
-                try {
-                    this.training = loadInstance(project, lastRelease, "training");
-                    this.testing = loadInstance(project, lastRelease, "testing");
-                    AttributeSelection filter = new AttributeSelection();
-                    CfsSubsetEval evaluator = new CfsSubsetEval();
-                    BestFirst search = new BestFirst();
-                    filter.setEvaluator(evaluator);
-                    filter.setSearch(search);
-                    filter.setInputFormat(training);
-                    training = Filter.useFilter(training, filter);
-                    testing = Filter.useFilter(testing, filter);
-                } catch (Exception e) {
-                    logger.info("errore nell'applicare best fit");
-                }
-                applySampling(sampling);
-                Classifier classifier = selectClassifier(classifierType);
-                Evaluation evaluation = analyze(classifier);
-                Result result;
-                if (evaluation != null) {
-                    result = generateResult(evaluation, classifierType, AnalysisVariables.FeatureSelection.BEST_FIRST, sampling);
-                    results.add(result);
-                }
+    // Combinazioni della release, nell'ordine in cui compaiono nei risultati
+    public static List<Combination> combinations() {
+        List<Combination> combinations = new ArrayList<>();
+        // No Feature Selection, No Balancing
+        for (AnalysisVariables.Classifiers classifierType : AnalysisVariables.Classifiers.values())
+            combinations.add(new Combination(classifierType, AnalysisVariables.FeatureSelection.NONE, AnalysisVariables.Sampling.NONE));
+        // Feature Selection, Balancing
+        for (AnalysisVariables.Sampling sampling : AnalysisVariables.Sampling.values())
+            for (AnalysisVariables.Classifiers classifierType : AnalysisVariables.Classifiers.values())
+                combinations.add(new Combination(classifierType, AnalysisVariables.FeatureSelection.BEST_FIRST, sampling));
+        return combinations;
+    }
 
+    // Valuta una combinazione lavorando solo su copie locali delle istanze: si puo' chiamare da piu' thread.
+    // `executionSlots` sono i thread concessi ai classificatori ensemble. Restituisce null se la valutazione non e' riuscita
+    public Result evaluate(Combination combination, int executionSlots) {
+        Instances training;
+        Instances testing;
+        try {
+            training = loadInstance(project, lastRelease, "training");
+            testing = loadInstance(project, lastRelease, "testing");
+        } catch (IOException e) {
+            logger.info("errore nel caricamento delle istanze della release " + lastRelease);
+            return null;
+        }
+        if (combination.featureSelection() == AnalysisVariables.FeatureSelection.BEST_FIRST) {
+            try {
+                Remove filter = FeatureSelectionCache.removeFilter(selectedAttributes(training), training);
+                training = Filter.useFilter(training, filter);
+                testing = Filter.useFilter(testing, filter);
+            } catch (Exception e) {
+                logger.info("errore nell'applicare best fit");
             }
         }
-        return results;
+        training = applySampling(training, combination.sampling());
+        Classifier classifier = selectClassifier(combination.classifier(), executionSlots);
+        Evaluation evaluation = analyze(classifier, training, testing);
+        if (evaluation == null) return null;
+        return generateResult(evaluation, combination.classifier(), combination.featureSelection(), combination.sampling());
     }
-    private Instances loadInstance(String project, int testingRelease, String instanceType) throws IOException {
+
+    // Copie delle istanze della release, per chi addestra il modello fuori da evaluate
+    Instances training() throws IOException {
+        return loadInstance(project, lastRelease, "training");
+    }
+
+    Instances testing() throws IOException {
+        return loadInstance(project, lastRelease, "testing");
+    }
+
+    // Risultato di un modello gia' addestrato su `training`, null se la valutazione non e' riuscita
+    Result evaluateTrained(Classifier classifier, Instances training, Instances testing, Combination combination) {
         try {
-            Path path = DatasetPaths.fromProject(project)
-                    .resolve("arff")
-                    .resolve(String.format("%s-%d.arff", instanceType, testingRelease));
-            Instances instance = ConverterUtils.DataSource.read(path.toString());
-            if (instance.classIndex() == -1)
-                instance.setClassIndex(instance.numAttributes() - 1);
-            return instance;
+            Evaluation evaluation = new Evaluation(training);
+            evaluation.evaluateModel(classifier, testing);
+            return generateResult(evaluation, combination.classifier(), combination.featureSelection(), combination.sampling());
         } catch (Exception e) {
+            logger.info("errore nello sviluppo del classificatore");
+            return null;
+        }
+    }
+
+    // La selezione dipende solo dal training della release: si calcola una volta anche con piu' task in parallelo
+    private synchronized int[] selectedAttributes(Instances training) throws Exception {
+        if (selectedAttributes == null) selectedAttributes = selectionCache.selectedAttributes(training);
+        return selectedAttributes;
+    }
+
+    private Instances loadInstance(String project, int testingRelease, String instanceType) throws IOException {
+        // Copia: filtri e sampling non devono modificare le istanze condivise tra le combinazioni
+        Instances source = instanceType.equals("training") ? trainingSource : testingSource;
+        if (source != null) return new Instances(source);
+        Path path = DatasetPaths.fromProject(project)
+                .resolve("arff")
+                .resolve(String.format("%s-%d.arff", instanceType, testingRelease));
+        try {
+            return cache.load(path);
+        } catch (IOException e) {
             logger.info("errore nel caricamento arff");
-            throw new IOException(e);
+            throw e;
         }
     }
-    private Classifier selectClassifier(AnalysisVariables.Classifiers classifierType) {
+    // Vero se il classificatore puo' costruire il modello su piu' thread
+    public static boolean isParallel(AnalysisVariables.Classifiers classifierType) {
+        return classifierType == AnalysisVariables.Classifiers.RANDOM_FOREST;
+    }
+    private Classifier selectClassifier(AnalysisVariables.Classifiers classifierType, int executionSlots) {
         return switch (classifierType) {
-            case RANDOM_FOREST -> new RandomForest();
+            case RANDOM_FOREST -> {
+                // Gli alberi del bagging vengono costruiti su `executionSlots` thread
+                RandomForest forest = new RandomForest();
+                forest.setNumExecutionSlots(executionSlots);
+                yield forest;
+            }
             case NAIVE_BAYES -> new NaiveBayes();
             case IBK -> new IBk();
         };
 
     }
-    private Evaluation analyze(Classifier classifier)  {
+    private Evaluation analyze(Classifier classifier, Instances training, Instances testing)  {
         try {
             classifier.buildClassifier(training);
         } catch (Exception e) {
@@ -134,8 +201,8 @@ public class Analyses {
                 auc,
                 evaluation.kappa());
     }
-    private void applySampling(AnalysisVariables.Sampling sampling) {
-        int yesInstances = calculateYes();
+    private Instances applySampling(Instances training, AnalysisVariables.Sampling sampling) {
+        int yesInstances = calculateYes(training);
         int majority = Math.max(yesInstances, training.size() - yesInstances);
         double percent = 100 * 2 * ((double) majority) / training.size();
         if (percent < 50) percent = 100 - percent;
@@ -148,7 +215,7 @@ public class Analyses {
                     SpreadSubsample underSample = new SpreadSubsample();
                     underSample.setInputFormat(training);
                     underSample.setDistributionSpread(1.0);
-                    training = Filter.useFilter(training, underSample);
+                    return Filter.useFilter(training, underSample);
                 } catch (Exception e) {
                     logger.info("errore under sampling");
                 }
@@ -160,7 +227,7 @@ public class Analyses {
                     overSample.setNoReplacement(false);
                     overSample.setBiasToUniformClass(1.0);
                     overSample.setSampleSizePercent(percent);
-                    training = Filter.useFilter(training, overSample);
+                    return Filter.useFilter(training, overSample);
                 } catch (Exception e) {
                     logger.info("errore over sampling");
                 }
@@ -170,15 +237,16 @@ public class Analyses {
                     SMOTE smote = new SMOTE();
                     smote.setInputFormat(training);
                     smote.setPercentage(percent);
-                    training = Filter.useFilter(training, smote);
+                    return Filter.useFilter(training, smote);
                 } catch (Exception e) {
                     logger.info("errore smoteg");
                 }
             }
         }
+        return training;
     }
 
-    private int calculateYes() {
+    private int calculateYes(Instances training) {
         int buggy = 0;
         for (Instance instance : training) {
             if (instance.stringValue(instance.numAttributes() - 1).equals("true"))
@@ -186,5 +254,5 @@ public class Analyses {
         }
         return buggy;
     }
-    
+
 }
@@ -1,104 +1,132 @@
 package it.uniroma2.gianlucaronzello;
 
 import it.uniroma2.gianlucaronzello.utils.DatasetPaths;
+import it.uniroma2.gianlucaronzello.utils.Hashing;
 import it.uniroma2.gianlucaronzello.utils.Metric;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 public class CSVManagement {
     private static final Logger logger = Logger.getLogger("CSV management");
     private final String project;
-    private final Map<Integer, List<CsvEntry>> oracleEntries;
+    private final CsvTable oracle;
     public CSVManagement(String project){
         this.project = project;
-        this.oracleEntries = loadCsv(project,"oracle.csv");
+        this.oracle = loadCsv(project,"oracle.csv");
     }
-    public Map<Integer, List<CsvEntry>> loadCsv(String project, String name) {
-        Map<Integer, List<CsvEntry>> entries = new HashMap<>();
+    public CsvTable loadCsv(String project, String name) {
+        Path path = DatasetPaths.fromProject(project).resolve("datasets").resolve(name);
         try {
-
-            Path path = DatasetPaths.fromProject(project).resolve("datasets").resolve(name);
-            List<String> lines = Files.readAllLines(path);
-            int version = 1;
-            List<CsvEntry> versionEntries = new ArrayList<>();
-            for (int i = 1; i < lines.size(); i++) {
-                String[] values = lines.get(i).split(",");
-                int newVersion = Integer.parseInt(values[0]);
-                if (version != newVersion) {
-                    entries.put(version, versionEntries);
-                    versionEntries = new ArrayList<>();
-                    version = newVersion;
-                }
-                versionEntries.add(readEntry(lines.get(i)));
-            }
-            entries.put(version, versionEntries);
-
+            return CsvTable.load(path);
         } catch (IOException e) {
             logger.info("Errore gestione CSV durante caricamento");
+            return null;
         }
-        return entries;
-    }
-    private CsvEntry readEntry(String line) {
-        String[] values = line.split(",");
-        String version = values[0];
-        String fileName = values[1];
-        boolean buggy = Objects.equals(values[values.length - 1].toLowerCase(), "true");
-        Map<Metric, String> fields = new EnumMap<>(Metric.class);
-        // Skipping for two values (Version, File Name) and last value (Buggy)
-        for (int j = 2; j < values.length - 1; j++)
-            fields.put(Metric.values()[j - 2], values[j]);
-        return new CsvEntry(version, fileName, fields, buggy);
     }
     public int getNumberReleases()  {
-        Optional<Integer> total = oracleEntries.keySet().stream().max(Comparator.naturalOrder());
-        if (total.isEmpty()) logger.info("errore calcolo numero release");
-        return total.get();
+        if (oracle == null || oracle.rows() == 0) throw new IllegalStateException("errore calcolo numero release");
+        return oracle.maxVersion();
     }
+    // training-i contiene le release 1..i-1 con le label del prefisso i: ogni release viene serializzata
+    // in un blocco identificato dall'hash delle righe scritte, cosi' i blocchi non cambiati tra un prefisso e il
+    // successivo vengono riusati e i file arff si ottengono concatenando header e blocchi
     public void generationArff(){
-        for (int i = 2; i < getNumberReleases(); i++) {
-            Map<Integer, List<CsvEntry>> entries = loadCsv(project, "%d.csv".formatted(i));
-            List<String> attributes = Arrays.stream(Metric.values()).map(m -> "@attribute %s numeric".formatted(m.name())).toList();
-            
-            List<String> testingData = oracleEntries.get(i).stream().map(this::entryFieldsToArff).toList();
-            List<String> trainingData = new ArrayList<>();
-            for (int j = 1; j < i; j++)
-                trainingData.addAll(entries.get(j).stream().map(this::entryFieldsToArff).toList());
-            String testingFile = "testing-%d.arff".formatted(i);
-            String trainingFile = "training-%d.arff".formatted(i);
-            try {
-                writeFile(testingFile, project, attributes, testingData);
-                writeFile(trainingFile, project, attributes, trainingData);
-            } catch (IOException e) {
-                logger.info("errore scrittura arff file");
+        try {
+            if (!Files.exists(Paths.get("dataset")) || !Files.exists(DatasetPaths.fromProject(project)))
+                throw new IOException("dataset folder does not exists");
+            Path arffFolder = DatasetPaths.fromProject(project).resolve("arff");
+            Path blocksFolder = arffFolder.resolve("blocks");
+            Files.createDirectories(blocksFolder);
+            byte[] header = arffHeader();
+            int releases = getNumberReleases();
+            Set<Path> used = new HashSet<>();
+            for (int i = 2; i < releases; i++) {
+                CsvTable entries = loadCsv(project, "%d.csv".formatted(i));
+                if (entries == null) continue;
+                List<Path> testing = List.of(writeBlock(blocksFolder, oracle, i));
+                List<Path> training = new ArrayList<>();
+                for (int j = 1; j < i; j++) training.add(writeBlock(blocksFolder, entries, j));
+                used.addAll(testing);
+                used.addAll(training);
+                concatenate(arffFolder.resolve("testing-%d.arff".formatted(i)), header, testing);
+                concatenate(arffFolder.resolve("training-%d.arff".formatted(i)), header, training);
             }
+            deleteUnused(blocksFolder, used);
+        } catch (IOException e) {
+            logger.info("errore scrittura arff file");
         }
     }
-    private void writeFile(String filename, String project, List<String> attributes, List<String> entries) throws IOException {
-        if (!Files.exists(Paths.get("dataset")) || !Files.exists(DatasetPaths.fromProject(project)))
-            throw new IOException("dataset folder does not exists");
-        Path arffFolder = DatasetPaths.fromProject(project).resolve("arff");
-        Files.createDirectories(arffFolder);
-        Path path = arffFolder.resolve(filename);
+    private byte[] arffHeader() {
+        List<String> attributes = Arrays.stream(Metric.values()).map(m -> "@attribute %s numeric".formatted(m.name())).toList();
         String text = "@relation %s%n".formatted(project) +
                 String.join("\n", attributes) + "\n" +
                 "@attribute Buggy {true,false}\n" +
-                "@data\n" +
-                String.join("\n", entries);
-        Files.write(path, text.getBytes());
+                "@data";
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+    private static void updateInt(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
     }
-    private String entryFieldsToArff(CsvEntry entry) {
-        List<String> orderedValues = new ArrayList<>();
-        for (Metric field : Metric.values()) {
-            String value = entry.fields().get(field);
-            orderedValues.add(value);
+    // Blocco della release `version` di `table`: ogni riga e' preceduta da "\n". La chiave e' l'hash di metriche
+    // e label delle righe di `table` che vengono scritte
+    private Path writeBlock(Path blocksFolder, CsvTable table, int version) throws IOException {
+        int from = table.firstRow(version);
+        int to = table.endRow(version);
+        MessageDigest digest = Hashing.sha256();
+        updateInt(digest, to - from);
+        for (int row = from; row < to; row++) {
+            for (Metric metric : Metric.values()) updateInt(digest, table.metric(row, metric));
+            digest.update((byte) (table.isBuggy(row) ? 1 : 0));
         }
-        return String.join(",", orderedValues) + ",%s".formatted(entry.buggy());
+        Path block = blocksFolder.resolve("%s.block".formatted(Hashing.toHex(digest)));
+        if (Files.exists(block)) return block;
+        Path temporary = Files.createTempFile(blocksFolder, "block", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary)) {
+            StringBuilder row = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                row.setLength(0);
+                row.append('\n');
+                for (Metric metric : Metric.values()) row.append(table.metric(i, metric)).append(',');
+                writer.append(row.append(table.isBuggy(i)));
+            }
+        }
+        Files.move(temporary, block, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return block;
     }
-    public record CsvEntry(String version, String name, Map<Metric, String> fields, boolean buggy) {
+    private static void concatenate(Path target, byte[] header, List<Path> blocks) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            while (buffer.hasRemaining()) out.write(buffer);
+            long written = 0;
+            for (Path block : blocks) {
+                try (FileChannel in = FileChannel.open(block, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) position += in.transferTo(position, size - position, out);
+                    written += size;
+                }
+            }
+            // Senza righe l'header termina comunque con un a capo
+            if (written == 0) out.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+    }
+    private static void deleteUnused(Path blocksFolder, Set<Path> used) throws IOException {
+        try (Stream<Path> blocks = Files.list(blocksFolder)) {
+            for (Path block : blocks.toList())
+                if (!used.contains(block)) Files.deleteIfExists(block);
+        }
     }
 }
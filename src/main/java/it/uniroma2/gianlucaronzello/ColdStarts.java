@@ -0,0 +1,98 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.jira.Jira;
+import it.uniroma2.gianlucaronzello.jira.JiraException;
+import it.uniroma2.gianlucaronzello.utils.Settings;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+// Proporzioni cold start per (progetto, parametri della query), salvate su disco con l'istante del calcolo:
+// dopo il TTL le issue su Jira possono essere cambiate e la proporzione viene ricalcolata
+public class ColdStarts {
+    private static final Logger logger = Logger.getLogger("ColdStarts");
+    private final Path path;
+    private final Properties values;
+
+    public ColdStarts(Path path) {
+        this.path = path;
+        this.values = new Properties();
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path)) {
+                values.load(reader);
+            } catch (IOException e) {
+                logger.info("Could not read cold starts: " + e);
+            }
+        }
+    }
+
+    // Proporzioni nello stesso ordine di `projects`: quelle mancanti vengono calcolate in parallelo
+    public synchronized List<Double> calculate(List<String> projects, String params) throws JiraException {
+        Map<String, Future<Double>> missing = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(projects.size(), Settings.jiraThreads())));
+        try {
+            for (String project : projects) {
+                if (!isFresh(key(project, params)) && !missing.containsKey(project))
+                    missing.put(project, executor.submit(() -> new Jira(project, params).calculateProportionColdStart()));
+            }
+            for (Map.Entry<String, Future<Double>> entry : missing.entrySet())
+                values.setProperty(key(entry.getKey(), params), "%s;%d".formatted(entry.getValue().get(), Instant.now().getEpochSecond()));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JiraException jiraException) throw jiraException;
+            throw new JiraException("Could not calculate cold start", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JiraException("Interrupted while calculating cold start", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!missing.isEmpty()) save();
+        List<Double> proportions = new ArrayList<>();
+        for (String project : projects) proportions.add(Double.parseDouble(values.getProperty(key(project, params)).split(";")[0]));
+        return proportions;
+    }
+
+    // Valore `proporzione;secondi epoch del calcolo`: le voci senza istante (formato precedente) si ricalcolano
+    private boolean isFresh(String key) {
+        if (!Settings.coldStartsCache()) return false;
+        String value = values.getProperty(key);
+        if (value == null) return false;
+        String[] fields = value.split(";");
+        if (fields.length != 2) return false;
+        try {
+            Double.parseDouble(fields[0]);
+            Instant calculated = Instant.ofEpochSecond(Long.parseLong(fields[1]));
+            return calculated.plus(Settings.coldStartsTtl()).isAfter(Instant.now());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String key(String project, String params) {
+        return "%s|%s".formatted(project, params);
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), "cold-starts", ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary)) {
+                values.store(writer, "Cold start proportion;epoch seconds by project|params");
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.info("Could not write cold starts: " + e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.utils.Metric;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+// CSV del dataset letto con una sola passata sul file mappato in memoria. Le metriche finiscono in colonne
+// di int, le righe di una versione sono contigue e `versionStart` da' l'offset della prima riga di ogni versione
+public final class CsvTable {
+    private static final int COLUMNS = Metric.values().length + 3;
+    private final MappedByteBuffer buffer;
+    private int rows;
+    private int[] versions;
+    private final int[][] metrics;
+    private final BitSet buggy;
+    private int[] versionStart;
+
+    private CsvTable(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.rows = 0;
+        this.versions = new int[1024];
+        this.metrics = new int[Metric.values().length][1024];
+        this.buggy = new BitSet();
+    }
+
+    public static CsvTable load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("CSV too large: %s".formatted(path));
+            CsvTable table = new CsvTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            table.parse(path);
+            return table;
+        }
+    }
+
+    private void parse(Path path) throws IOException {
+        int limit = buffer.limit();
+        int position = skipLine(0, limit);
+        while (position < limit) {
+            if (buffer.get(position) == '\n' || buffer.get(position) == '\r') {
+                position++;
+                continue;
+            }
+            grow();
+            int column = 0;
+            int start = position;
+            while (position <= limit) {
+                byte current = position < limit ? buffer.get(position) : (byte) '\n';
+                if (current == ',' || current == '\n' || current == '\r') {
+                    readField(column++, start, position, path);
+                    start = position + 1;
+                    if (current != ',') break;
+                }
+                position++;
+            }
+            if (column != COLUMNS) throw new IOException("Malformed row %d in %s".formatted(rows + 1, path));
+            rows++;
+            position++;
+        }
+        indexVersions(path);
+    }
+
+    private int skipLine(int position, int limit) {
+        while (position < limit && buffer.get(position) != '\n') position++;
+        return position + 1;
+    }
+
+    private void readField(int column, int start, int end, Path path) throws IOException {
+        // La colonna 1 (File_Name) non entra negli arff e non viene letta
+        if (column == 0) versions[rows] = parseInt(start, end, path);
+        else if (column > 1 && column < COLUMNS - 1) metrics[column - 2][rows] = parseInt(start, end, path);
+        else if (column == COLUMNS - 1) buggy.set(rows, isTrue(start, end));
+    }
+
+    private boolean isTrue(int start, int end) {
+        if (end - start != 4) return false;
+        for (int i = 0; i < 4; i++)
+            if ((buffer.get(start + i) | 0x20) != "true".charAt(i)) return false;
+        return true;
+    }
+
+    private int parseInt(int start, int end, Path path) throws IOException {
+        boolean negative = start < end && buffer.get(start) == '-';
+        int position = negative ? start + 1 : start;
+        if (position == end) throw new IOException("Missing number at row %d in %s".formatted(rows + 1, path));
+        int value = 0;
+        for (; position < end; position++) {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) throw new IOException("Invalid number at row %d in %s".formatted(rows + 1, path));
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private void grow() {
+        if (rows < versions.length) return;
+        int capacity = versions.length * 2;
+        versions = Arrays.copyOf(versions, capacity);
+        for (int i = 0; i < metrics.length; i++) metrics[i] = Arrays.copyOf(metrics[i], capacity);
+    }
+
+    // versionStart[v] e' la prima riga della versione v (le versioni partono da 1), versionStart[v + 1] la fine
+    private void indexVersions(Path path) throws IOException {
+        int maxVersion = rows == 0 ? 0 : versions[rows - 1];
+        versionStart = new int[maxVersion + 2];
+        int row = 0;
+        for (int version = 0; version <= maxVersion + 1; version++) {
+            while (row < rows && versions[row] < version) row++;
+            versionStart[version] = row;
+        }
+        for (int i = 1; i < rows; i++)
+            if (versions[i] < versions[i - 1]) throw new IOException("Versions are not sorted in %s".formatted(path));
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int maxVersion() {
+        return versionStart.length - 2;
+    }
+
+    // Prima riga della versione
+    public int firstRow(int version) {
+        return versionStart[Math.min(Math.max(version, 0), versionStart.length - 1)];
+    }
+
+    // Riga successiva all'ultima della versione
+    public int endRow(int version) {
+        return firstRow(version + 1);
+    }
+
+    public int metric(int row, Metric metric) {
+        return metrics[metric.ordinal()][row];
+    }
+
+    public boolean isBuggy(int row) {
+        return buggy.get(row);
+    }
+}
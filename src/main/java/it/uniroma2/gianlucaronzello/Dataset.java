@@ -3,265 +3,314 @@ package it.uniroma2.gianlucaronzello;
 import it.uniroma2.gianlucaronzello.git.GitClass;
 import it.uniroma2.gianlucaronzello.git.GitCommitEntry;
 import it.uniroma2.gianlucaronzello.git.GitException;
+import it.uniroma2.gianlucaronzello.git.GitHistory;
+import it.uniroma2.gianlucaronzello.git.GitSession;
 import it.uniroma2.gianlucaronzello.git.JiraGitIntegration;
 import it.uniroma2.gianlucaronzello.jira.model.JiraIssue;
 import it.uniroma2.gianlucaronzello.jira.model.JiraVersion;
 import it.uniroma2.gianlucaronzello.utils.DatasetPaths;
 import it.uniroma2.gianlucaronzello.utils.Metric;
+import it.uniroma2.gianlucaronzello.utils.Settings;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.function.Function;
+import java.util.concurrent.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 public class Dataset {
     private static final Logger logger = Logger.getLogger("ApplyMetrics");
     private final List<Pair<JiraVersion, GitCommitEntry>> versions;
     private final Map<JiraIssue, GitCommitEntry> issues;
     private final GitClass git;
-    private final Map<String, List<DatasetEntry>> entries;
+    private final MetricStore store;
+    private int[][] firstBuggyPrefix;
     public Dataset(JiraGitIntegration integration, GitClass git) {
         this.git = git;
-        this.entries = new HashMap<>();
         this.issues = integration.issues();
         this.versions = integration.versions();
-        for (Pair<JiraVersion, GitCommitEntry> version : this.versions) {
-            GitCommitEntry revision = version.second();
-            for (String aClass : revision.classList()) {
-                List<DatasetEntry> datasetEntries = new ArrayList<>();
-                for (int i = 0; i < this.versions.size(); i++)
-                    datasetEntries.add(i, new DatasetEntry());
-                entries.put(aClass, datasetEntries);
+        List<List<String>> classesByVersion = new ArrayList<>();
+        for (Pair<JiraVersion, GitCommitEntry> version : this.versions) classesByVersion.add(version.second().classList());
+        this.store = new MetricStore(classesByVersion);
+    }
+
+    public void applyMetrics() {
+        ExecutorService executor = Executors.newFixedThreadPool(Settings.metricThreads());
+        try {
+            applyMetrics(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    // Ogni range [versione precedente, versione corrente] e ogni famiglia di metriche e' un task indipendente
+    // I task scrivono direttamente nello store senza lock: ogni (versione, metrica) ha un solo task
+    // (LOC; LOC_TOUCHED e CHURN; le metriche della history), e task.get() rende visibili le scritture
+    public void applyMetrics(ExecutorService executor) {
+        MetricSink sink = store;
+        List<Future<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < versions.size(); i++) {
+            int version = i;
+            tasks.add(executor.submit(withSession(session -> applyLOCMetric(session, version, sink))));
+            tasks.add(executor.submit(withSession(session -> applyDifferenceMetric(session, version, sink))));
+            tasks.add(executor.submit(withSession(session -> applyHistoryMetric(session, version, sink))));
+        }
+        for (Future<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                logger.info("git error: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
 
-    private Void applyMetric(Main.MetricValue metric) {
-        entries.get(metric.aClass())
-                .get(metric.version())
-                .metrics()
-                .put(metric.metric(), String.valueOf(metric.value()));
-        return null;
+    @FunctionalInterface
+    private interface MetricTask {
+        void run(GitSession session) throws GitException;
     }
-    public void applyMetrics()  {
-        applyLOCMetric(git, versions, this::applyMetric);
-        applyDifferenceMetric(git, versions, this::applyMetric);
-        applyCumulativeMetric(git, versions, this::applyMetric);
-        applyListMetric(git, versions, issues, this::applyMetric);
-    }
-    public  void applyLOCMetric(GitClass git, List<Pair<JiraVersion, GitCommitEntry>> versions,
-                                      Function<Main.MetricValue, Void> func) {
-        try {
-            // ogni revisione
-            for (int i = 0; i < versions.size(); i++) {
-                GitCommitEntry revision = versions.get(i).second();
-                for (String aClass : revision.classList()) {
-                    // calcoli il numeroo di linee del file
-                    String contents = git.getContentsOfClass(revision, aClass);
-                    int loc = contents.split("\n").length;
-                    Main.MetricValue value = new Main.MetricValue(aClass, i, Metric.LOC, loc);
-                    func.apply(value);
-                }
+
+    // Ogni task usa reader, RevWalk e DiffFormatter propri
+    private Callable<Void> withSession(MetricTask task) {
+        return () -> {
+            try (GitSession session = git.openSession()) {
+                task.run(session);
             }
-        } catch (GitException e) {
-            logger.info("git error");
-        }
+            return null;
+        };
     }
 
-    public  void applyDifferenceMetric(GitClass git, List<Pair<JiraVersion, GitCommitEntry>> versions,
-                                             Function<Main.MetricValue, Void> func)  {
-        try {
-            GitCommitEntry previous = git.getFirstCommit();
-            // vedi release consecutive
-            for (int i = 0; i < versions.size(); i++) {
-                GitCommitEntry current = versions.get(i).second();
-                //differenze tra commit
-                Map<String, GitClass.GitDiffEntry> diffs = git.getDifferences(previous, current);
-                for (String aClass : current.classList()) {
-                    // Get the diff of this class
-                    GitClass.GitDiffEntry diff = diffs.get(aClass);
-                    // Calculate the LOC touched and the churn
-                    int locTouched = 0;
-                    int churn = 0;
-                    if (diff != null) {
-                        locTouched = diff.touched();
-                        churn = diff.churn();
-                    }
-                    Main.MetricValue locTouchedMetric = new Main.MetricValue(aClass, i, Metric.LOC_TOUCHED, locTouched);
-                    Main.MetricValue churnMetric = new Main.MetricValue(aClass, i, Metric.CHURN, churn);
-                    func.apply(locTouchedMetric);
-                    func.apply(churnMetric);
-                }
+    private GitCommitEntry previousRevision(int version) throws GitException {
+        return version == 0 ? git.getFirstCommit() : versions.get(version - 1).second();
+    }
 
-                // Set previous version as the current for the next iteration
-                previous = current;
+    public void applyLOCMetric(GitSession session, int version, MetricSink sink) throws GitException {
+        GitCommitEntry revision = versions.get(version).second();
+        // numero di righe dei file, i blob invariati tra release non vengono riletti
+        Map<String, Integer> lines = git.getLinesOfClasses(session, revision);
+        for (int id : store.classesOf(version))
+            sink.accept(id, version, Metric.LOC, lines.get(store.classOf(id)));
+    }
+
+    public void applyDifferenceMetric(GitSession session, int version, MetricSink sink) throws GitException {
+        GitCommitEntry previous = previousRevision(version);
+        GitCommitEntry current = versions.get(version).second();
+        //differenze tra commit
+        Map<String, GitClass.GitDiffEntry> diffs = git.getDifferences(session, previous, current);
+        for (int id : store.classesOf(version)) {
+            // Get the diff of this class
+            GitClass.GitDiffEntry diff = diffs.get(store.classOf(id));
+            // Calculate the LOC touched and the churn
+            int locTouched = 0;
+            int churn = 0;
+            if (diff != null) {
+                locTouched = diff.touched();
+                churn = diff.churn();
             }
-        } catch (GitException e) {
-            logger.info("git exception");
+            sink.accept(id, version, Metric.LOC_TOUCHED, locTouched);
+            sink.accept(id, version, Metric.CHURN, churn);
         }
     }
 
-    public  void applyCumulativeMetric(GitClass git, List<Pair<JiraVersion, GitCommitEntry>> versions,
-                                             Function<Main.MetricValue, Void> func)  {
-        try {
-            GitCommitEntry previous = git.getFirstCommit();
+    // Un solo walk della storia del range per le metriche cumulative e per quelle sulla lista dei commit
+    public void applyHistoryMetric(GitSession session, int version, MetricSink sink) throws GitException {
+        GitCommitEntry previous = previousRevision(version);
+        GitHistory history = git.getHistory(session, previous, versions.get(version).second());
+        applyCumulativeMetric(history, version, sink);
+        applyListMetric(history, previous, version, sink);
+    }
 
-            // For every consecutive pair of versions
-            for (int i = 0; i < versions.size(); i++) {
-                GitCommitEntry current = versions.get(i).second();
-                // For every class
-                for (String aClass : current.classList()) {
-                    // Get all the incremental differences of the class between the releases
-                    List<GitClass.GitDiffEntry> diffs = git.getAllDifferencesOfClass(previous, current, aClass);
-                    // Size of the `diffs` list (set as 1 if it's empty, so there's not dividing-by-zero error)
-                    int size = diffs.size();
-                    if (diffs.isEmpty()) size = 1;
-                    // Calculating the max LOC added
-                    int maxLocAdded = diffs.stream().map(GitClass.GitDiffEntry::added).max(Comparator.naturalOrder()).orElse(0);
-                    Main.MetricValue maxLocAddedMetric = new Main.MetricValue(aClass, i, Metric.MAX_LOC_ADDED, maxLocAdded);
-                    func.apply(maxLocAddedMetric);
-                    // Calculating the max Churn
-                    int maxChurn = diffs.stream().map(GitClass.GitDiffEntry::churn).max(Comparator.naturalOrder()).orElse(0);
-                    Main.MetricValue maxChurnMetric = new Main.MetricValue(aClass, i, Metric.MAX_CHURN, maxChurn);
-                    func.apply(maxChurnMetric);
-                    // Calculating the sum of all the LOC added
-                    int sumLocAdded = diffs.stream().map(GitClass.GitDiffEntry::added).reduce(Integer::sum).orElse(0);
-                    Main.MetricValue averageLocAddedMetric = new Main.MetricValue(aClass, i, Metric.AVERAGE_LOC_ADDED, sumLocAdded / size);
-                    func.apply(averageLocAddedMetric);
-                    // Calculating the sum of all Churn
-                    int sumChurn = diffs.stream().map(GitClass.GitDiffEntry::churn).reduce(Integer::sum).orElse(0);
-                    Main.MetricValue averageChurnMetric = new Main.MetricValue(aClass, i, Metric.AVERAGE_CHURN, sumChurn / size);
-                    func.apply(averageChurnMetric);
-                }
-                // Set previous version as the current for the next iteration
-                previous = current;
+    public void applyCumulativeMetric(GitHistory history, int version, MetricSink sink) {
+        // For every class
+        for (int id : store.classesOf(version)) {
+            // Get all the incremental differences of the class between the releases
+            List<GitClass.GitDiffEntry> diffs = history.differencesOfClass(store.classOf(id));
+            // Size of the `diffs` list (set as 1 if it's empty, so there's not dividing-by-zero error)
+            int size = diffs.size();
+            if (diffs.isEmpty()) size = 1;
+            // Il churn puo' essere negativo: i massimi partono da MIN_VALUE e valgono 0 solo senza differenze
+            int maxLocAdded = Integer.MIN_VALUE;
+            int maxChurn = Integer.MIN_VALUE;
+            int sumLocAdded = 0;
+            int sumChurn = 0;
+            for (GitClass.GitDiffEntry diff : diffs) {
+                maxLocAdded = Math.max(maxLocAdded, diff.added());
+                maxChurn = Math.max(maxChurn, diff.churn());
+                sumLocAdded += diff.added();
+                sumChurn += diff.churn();
             }
-        } catch (GitException e) {
-            logger.info("apply cumulative metric error");
+            sink.accept(id, version, Metric.MAX_LOC_ADDED, diffs.isEmpty() ? 0 : maxLocAdded);
+            sink.accept(id, version, Metric.MAX_CHURN, diffs.isEmpty() ? 0 : maxChurn);
+            sink.accept(id, version, Metric.AVERAGE_LOC_ADDED, sumLocAdded / size);
+            sink.accept(id, version, Metric.AVERAGE_CHURN, sumChurn / size);
         }
     }
 
-    public  void applyListMetric(GitClass git, List<Pair<JiraVersion, GitCommitEntry>> versions,
-                                       Map<JiraIssue, GitCommitEntry> issues,
-                                       Function<Main.MetricValue, Void> func)  {
-        try {
-            GitCommitEntry previous = git.getFirstCommit();
-            // For every consecutive pair of versions
-            for (int i = 0; i < versions.size(); i++) {
-                Pair<JiraVersion, GitCommitEntry> current = versions.get(i);
-                // For every class
-                for (String aClass : current.second().classList()) {
-                    // Get every commit between two releases
-                    List<GitCommitEntry> commits = git.getAllCommitsOfClass(previous, current.second(), aClass);
-                    // NR
-                    Main.MetricValue nrMetric = new Main.MetricValue(aClass, i, Metric.NR, commits.size());
-                    func.apply(nrMetric);
+    public void applyListMetric(GitHistory history, GitCommitEntry previous, int version, MetricSink sink) {
+        Pair<JiraVersion, GitCommitEntry> current = versions.get(version);
+        // For every class
+        for (int id : store.classesOf(version)) {
+            // Get every commit between two releases
+            List<GitCommitEntry> commits = history.commitsOfClass(store.classOf(id));
+            // NR
+            sink.accept(id, version, Metric.NR, commits.size());
 
-                    // NAuth
-                    int numberOfAuthors = commits.stream().map(GitCommitEntry::author).collect(Collectors.toSet()).size();
-                    Main.MetricValue nAuthMetric = new Main.MetricValue(aClass, i, Metric.N_AUTH, numberOfAuthors);
-                    func.apply(nAuthMetric);
+            // NAuth
+            int numberOfAuthors = commits.stream().map(GitCommitEntry::author).collect(Collectors.toSet()).size();
+            sink.accept(id, version, Metric.N_AUTH, numberOfAuthors);
 
-                    // NFix
-                    List<String> hashes = new ArrayList<>(commits.stream().map(GitCommitEntry::hash).toList());
-                    hashes.addAll(List.of(previous.hash(), current.second().hash()));
-                    long nFix = current.first().fixed().stream()
-                            .filter(issue -> hashes.contains(issues.get(issue).hash())) // Fixed issues contained in this commit range
-                            .count();
-                    Main.MetricValue nFixMetric = new Main.MetricValue(aClass, i, Metric.N_FIX, nFix);
-                    func.apply(nFixMetric);
-                }
-                // Set previous version as the current for the next iteration
-                previous = current.second();
-            }
-        } catch (GitException e) {
-            logger.info("apply list metric error");
+            // NFix
+            Set<String> hashes = commits.stream().map(GitCommitEntry::hash).collect(Collectors.toSet());
+            hashes.addAll(List.of(previous.hash(), current.second().hash()));
+            long nFix = current.first().fixed().stream()
+                    .filter(issue -> hashes.contains(issues.get(issue).hash())) // Fixed issues contained in this commit range
+                    .count();
+            sink.accept(id, version, Metric.N_FIX, nFix);
         }
     }
-    public void setBuggy(int lastVersion) throws GitException {
-        List<Pair<JiraVersion, GitCommitEntry>> subList = versions.subList(0, lastVersion);
-        calculateBuggy(git, subList, issues, buggy -> {
-            buggy.first().stream().filter(entries::containsKey).forEach(aClass -> {
-                for (int version : buggy.second())
-                    entries.get(aClass).get(version).setBuggy(true);
-            });
-            return null;
-        });
+    // Fix di un issue: classi modificate dal commit di fix e versioni [IV, FV) in cui erano buggy
+    private record BuggyEvent(int fixVersion, List<String> classes, int injected, int fixed) {
     }
-    public void calculateBuggy(GitClass git, List<Pair<JiraVersion, GitCommitEntry>> versions,
-                               Map<JiraIssue, GitCommitEntry> issues,
-                               Function<Pair<List<String>, int[]>, Void> func) throws GitException {
-        try {
-            // For every version (after the first)
-            for (int i = 1; i < versions.size(); i++) {
-                Pair<JiraVersion, GitCommitEntry> current = versions.get(i);
-                // For every issue fixed in this version
-                for (JiraIssue fixedIssue : current.first().fixed()) {
-                    GitCommitEntry fixedCommit = issues.get(fixedIssue);
-                    List<String> modifiedClasses = git.getModifiedClassesOfCommit(fixedCommit);
-                    int[] range = IntStream.range(fixedIssue.getIvIndex(), fixedIssue.getFvIndex()).toArray();
-                    func.apply(new Pair<>(modifiedClasses, range));
-                }
-            }
-        } catch (GitException e) {
-            throw new GitException("Could not load differences", e);
-        }
-    }
-    public void writeToFile(String project, int numberOfVersions) throws IOException {
+    private static final int NEVER_BUGGY = Integer.MAX_VALUE;
+    // Prefisso che contiene i fix di tutte le versioni, come oracle.csv
+    public static final int ORACLE = -1;
 
-        String text = writeToText(versions, entries, numberOfVersions);
+    // Prefissi walk-forward 2..lastVersion e oracolo scritti in un solo passaggio sui dati. Il prefisso j usa
+    // i fix delle versioni precedenti a j: una riga e' identica in tutti i file che la contengono tranne
+    // Buggy, che vale true a partire dal primo prefisso che include un fix della classe
+    public void writeDataset(String project, int lastVersion) throws GitException, IOException {
+        label(lastVersion);
+        Path datasetFolder = DatasetPaths.fromProject(project).resolve("datasets");
+        // writers[j] scrive j.csv, writers[0] l'oracolo
+        Writer[] writers = new Writer[lastVersion + 1];
         try {
-            Path datasetFolder = DatasetPaths.fromProject(project).resolve("datasets");
             Files.createDirectories(datasetFolder);
-            Path output = datasetFolder.resolve("%s.csv".formatted(String.valueOf(numberOfVersions)));
-            Files.write(output, text.getBytes());
+            writers[0] = Files.newBufferedWriter(datasetFolder.resolve("oracle.csv"));
+            for (int j = 2; j <= lastVersion; j++)
+                writers[j] = Files.newBufferedWriter(datasetFolder.resolve("%d.csv".formatted(j)));
+            writeRows(writers, lastVersion);
         } catch (IOException e) {
             throw new IOException("Could not write file", e);
+        } finally {
+            closeAll(writers);
         }
     }
-    private String writeHeader() {
-        List<String> metrics = Arrays.stream(Metric.values()).map(Metric::name).toList();
-        return "Version,File_Name,%s,Buggy".formatted(String.join(",", metrics));
+
+    // Label dei prefissi 2..lastVersion, calcolate una volta sola per file e istanze weka
+    public void label(int lastVersion) throws GitException {
+        if (firstBuggyPrefix == null || firstBuggyPrefix.length != lastVersion) firstBuggyPrefix = labelRows(lastVersion);
     }
 
-    private String writeEntry(int version, String className, DatasetEntry entry) {
-        List<String> metrics = new ArrayList<>();
-        for (Metric value : Metric.values())
-            metrics.add(entry.metrics().get(value));
-        return "%d,%s,%s,%s".formatted(version + 1, className, String.join(",", metrics), entry.isBuggy());
+    private int[][] labelRows(int lastVersion) throws GitException {
+        int[][] prefixes = new int[lastVersion][store.classes().size()];
+        for (int[] row : prefixes) Arrays.fill(row, NEVER_BUGGY);
+        for (BuggyEvent event : calculateBuggy(versions.subList(0, lastVersion))) {
+            for (String aClass : event.classes()) {
+                int id = store.idOf(aClass);
+                for (int version = event.injected(); version < event.fixed(); version++)
+                    prefixes[version][id] = Math.min(prefixes[version][id], event.fixVersion() + 1);
+            }
+        }
+        return prefixes;
     }
-    public void writeOracle(String project, int numberOfVersions) throws IOException {
 
+    private void writeRows(Writer[] writers, int lastVersion) throws IOException {
+        StringBuilder header = new StringBuilder("Version,File_Name");
+        for (Metric metric : Metric.values()) header.append(',').append(metric.name());
+        header.append(",Buggy").append(System.lineSeparator());
+        for (Writer writer : writers) if (writer != null) writer.write(header.toString());
+        boolean first = true;
+        StringBuilder row = new StringBuilder();
+        char[] buffer = new char[256];
+        for (int version = 0; version < lastVersion; version++) {
+            for (int id : store.classesOf(version)) {
+                // La parte comune della riga viene formattata una volta sola
+                row.setLength(0);
+                if (!first) row.append('\n');
+                row.append(version + 1).append(',').append(store.classOf(id));
+                for (Metric metric : Metric.values()) row.append(',').append(store.get(id, version, metric));
+                row.append(',');
+                if (buffer.length < row.length()) buffer = new char[row.length() * 2];
+                row.getChars(0, row.length(), buffer, 0);
+                int buggyFrom = firstBuggyPrefix[version][id];
+                writers[0].write(buffer, 0, row.length());
+                writers[0].write(buggyFrom != NEVER_BUGGY ? "true" : "false");
+                // La versione `version` compare nei prefissi che ne contengono almeno version + 1
+                for (int j = Math.max(version + 1, 2); j <= lastVersion; j++) {
+                    writers[j].write(buffer, 0, row.length());
+                    writers[j].write(j >= buggyFrom ? "true" : "false");
+                }
+                first = false;
+            }
+        }
+    }
 
-        String text = writeToText(versions, entries, numberOfVersions);
-        writeToFile(project, text, "oracle");
+    // Istanze weka delle versioni [from, to) con le label del prefisso `prefix`, con gli stessi attributi
+    // dei file arff ma senza passare dal testo. Richiede label()
+    public Instances toInstances(String relation, int from, int to, int prefix) {
+        Metric[] metrics = Metric.values();
+        ArrayList<Attribute> attributes = new ArrayList<>(metrics.length + 1);
+        for (Metric metric : metrics) attributes.add(new Attribute(metric.name()));
+        attributes.add(new Attribute("Buggy", List.of("true", "false")));
+        int rows = 0;
+        for (int version = from; version < to; version++) rows += store.classesOf(version).length;
+        Instances instances = new Instances(relation, attributes, rows);
+        instances.setClassIndex(metrics.length);
+        for (int version = from; version < to; version++) {
+            for (int id : store.classesOf(version)) {
+                double[] values = new double[metrics.length + 1];
+                for (int i = 0; i < metrics.length; i++) values[i] = store.get(id, version, metrics[i]);
+                int buggyFrom = firstBuggyPrefix[version][id];
+                boolean buggy = prefix == ORACLE ? buggyFrom != NEVER_BUGGY : prefix >= buggyFrom;
+                values[metrics.length] = buggy ? 0 : 1;
+                instances.add(new DenseInstance(1.0, values));
+            }
+        }
+        return instances;
     }
-    public String writeToText(List<Pair<JiraVersion, GitCommitEntry>> revisions,
-                              Map<String, List<DatasetEntry>> entries, int numberOfVersions) {
-        String header = writeHeader();
-        List<String> values = new ArrayList<>();
-        for (int i = 0; i < numberOfVersions; i++) {
-            GitCommitEntry revision = revisions.get(i).second();
-            for (String aClass : revision.classList()) {
-                String value = writeEntry(i, aClass, entries.get(aClass).get(i));
-                values.add(value);
+
+    private static void closeAll(Writer[] writers) throws IOException {
+        IOException failure = null;
+        for (Writer writer : writers) {
+            if (writer == null) continue;
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) failure = new IOException("Could not write file", e);
             }
         }
-        return "%s%n%s".formatted(header, String.join("\n", values));
+        if (failure != null) throw failure;
     }
-    public void writeToFile(String project, String text, String name) throws IOException {
+    private List<BuggyEvent> calculateBuggy(List<Pair<JiraVersion, GitCommitEntry>> versions) throws GitException {
+        // Piu' issue possono avere lo stesso commit di fix: il diff si calcola una volta sola
+        Map<String, List<String>> modifiedClassesOfCommit = new HashMap<>();
+        List<BuggyEvent> events = new ArrayList<>();
         try {
-            Path datasetFolder = DatasetPaths.fromProject(project).resolve("datasets");
-            Files.createDirectories(datasetFolder);
-            Path output = datasetFolder.resolve("%s.csv".formatted(name));
-            Files.write(output, text.getBytes());
-        } catch (IOException e) {
-            throw new IOException("Could not write file", e);
+            // For every version (after the first)
+            for (int i = 1; i < versions.size(); i++) {
+                Pair<JiraVersion, GitCommitEntry> current = versions.get(i);
+                // For every issue fixed in this version
+                for (JiraIssue fixedIssue : current.first().fixed()) {
+                    GitCommitEntry fixedCommit = issues.get(fixedIssue);
+                    List<String> modifiedClasses = modifiedClassesOfCommit.get(fixedCommit.hash());
+                    if (modifiedClasses == null) {
+                        modifiedClasses = git.getModifiedClassesOfCommit(fixedCommit, store.classes());
+                        modifiedClassesOfCommit.put(fixedCommit.hash(), modifiedClasses);
+                    }
+                    events.add(new BuggyEvent(i, modifiedClasses, fixedIssue.getIvIndex(), fixedIssue.getFvIndex()));
+                }
+            }
+            return events;
+        } catch (GitException e) {
+            throw new GitException("Could not load differences", e);
         }
     }
-
 }
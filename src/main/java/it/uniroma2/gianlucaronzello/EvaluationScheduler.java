@@ -0,0 +1,166 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.Main.Result;
+import it.uniroma2.gianlucaronzello.utils.Settings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+// Valutazione walk-forward in parallelo: ogni (release, classificatore, feature selection, sampling) e' un task
+// indipendente con le proprie copie delle istanze. I risultati sono raccolti nell'ordine di release e combinazione
+// (Analyses.combinations())
+public final class EvaluationScheduler {
+    private static final Logger logger = Logger.getLogger("EvaluationScheduler");
+
+    public List<Result> run(List<Analyses> analyses) {
+        return run(analyses, null);
+    }
+
+    // Con un journal le combinazioni gia' registrate vengono riprese e ogni nuovo risultato viene registrato subito
+    public List<Result> run(List<Analyses> analyses, ResultsJournal journal) {
+        List<Result> results = new ArrayList<>();
+        if (analyses.isEmpty()) return results;
+        List<Analyses.Combination> combinations = Analyses.combinations();
+        // Un solo caricamento per release: stima della memoria e, con un journal, impronta dei dati
+        Analyses.Profile[] profiles = profiles(analyses, journal != null);
+        String[] fingerprints = new String[analyses.size()];
+        for (int release = 0; release < analyses.size(); release++)
+            if (profiles[release] != null) fingerprints[release] = profiles[release].fingerprint();
+        Result[][] recorded = new Result[analyses.size()][combinations.size()];
+        if (journal != null) {
+            for (int release = 0; release < analyses.size(); release++)
+                for (int k = 0; k < combinations.size(); k++)
+                    if (fingerprints[release] != null)
+                        recorded[release][k] = journal.find(analyses.get(release).lastRelease(), combinations.get(k), fingerprints[release]);
+        }
+        // I core sono permessi: un task normale ne prende uno, un ensemble tanti quanti i suoi execution slot,
+        // cosi' task concorrenti e thread interni ai classificatori non superano mai i core disponibili
+        int cores = Settings.analysisThreads();
+        int forestSlots = Math.max(1, Math.min(cores, Settings.forestExecutionSlots()));
+        Semaphore permits = new Semaphore(cores, true);
+        List<String> failures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads(profiles, cores));
+        try {
+            // Con il training incrementale le combinazioni aggiornabili sono una catena sequenziale sulle release
+            Map<Integer, Future<List<Result>>> chains = new HashMap<>();
+            for (int k = 0; k < combinations.size(); k++) {
+                Analyses.Combination combination = combinations.get(k);
+                if (Settings.incrementalTraining() && IncrementalTraining.supports(combination) && isMissing(recorded, k))
+                    chains.put(k, executor.submit(() -> runChain(analyses, combination, permits, journal, fingerprints)));
+            }
+            List<List<Future<Result>>> tasks = new ArrayList<>();
+            for (int release = 0; release < analyses.size(); release++) {
+                List<Future<Result>> releaseTasks = new ArrayList<>();
+                for (int k = 0; k < combinations.size(); k++) {
+                    Analyses.Combination combination = combinations.get(k);
+                    if (recorded[release][k] != null || chains.containsKey(k)) {
+                        releaseTasks.add(null);
+                        continue;
+                    }
+                    Analyses analysis = analyses.get(release);
+                    String fingerprint = fingerprints[release];
+                    int slots = Analyses.isParallel(combination.classifier()) ? forestSlots : 1;
+                    releaseTasks.add(executor.submit(() -> evaluate(analysis, combination, slots, permits, journal, fingerprint)));
+                }
+                tasks.add(releaseTasks);
+            }
+            for (int release = 0; release < analyses.size(); release++) {
+                for (int k = 0; k < combinations.size(); k++) {
+                    Result result = recorded[release][k];
+                    try {
+                        if (result == null && chains.containsKey(k)) result = chains.get(k).get().get(release);
+                        else if (result == null) result = tasks.get(release).get(k).get();
+                    } catch (ExecutionException e) {
+                        failures.add("release %d %s: %s".formatted(analyses.get(release).lastRelease(), combinations.get(k), e.getCause()));
+                        continue;
+                    }
+                    if (result != null) results.add(result);
+                    else failures.add("release %d %s".formatted(analyses.get(release).lastRelease(), combinations.get(k)));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        // Le combinazioni fallite non finiscono nel journal: vengono ritentate alla prossima esecuzione
+        if (!failures.isEmpty())
+            logger.warning("%d evaluations failed:%n%s".formatted(failures.size(), String.join(System.lineSeparator(), failures)));
+        return results;
+    }
+
+    private static boolean isMissing(Result[][] recorded, int combination) {
+        for (Result[] release : recorded)
+            if (release[combination] == null) return true;
+        return false;
+    }
+
+    // Null per le release le cui istanze non si caricano: i loro task falliranno e verranno riportati
+    private static Analyses.Profile[] profiles(List<Analyses> analyses, boolean withFingerprint) {
+        Analyses.Profile[] profiles = new Analyses.Profile[analyses.size()];
+        for (int i = 0; i < profiles.length; i++) {
+            try {
+                profiles[i] = analyses.get(i).profile(withFingerprint);
+            } catch (IOException e) {
+                logger.warning("Could not load release %d: %s".formatted(analyses.get(i).lastRelease(), e));
+            }
+        }
+        return profiles;
+    }
+
+    // Un risultato non registrato viene solo ricalcolato alla prossima esecuzione: non si scarta
+    private static void record(ResultsJournal journal, Result result, String fingerprint) {
+        if (journal == null || result == null || fingerprint == null) return;
+        try {
+            journal.record(result, fingerprint);
+        } catch (IOException e) {
+            logger.warning("Could not record release %d %s %s %s: %s".formatted(result.releases(), result.classifier(),
+                    result.featureSelection(), result.sampling(), e));
+        }
+    }
+
+    // Un errore inatteso in un task non deve fermare gli altri: viene riportato alla fine
+    private static Result evaluate(Analyses analysis, Analyses.Combination combination, int slots, Semaphore permits,
+                                   ResultsJournal journal, String fingerprint) throws InterruptedException {
+        permits.acquire(slots);
+        try {
+            Result result = analysis.evaluate(combination, slots);
+            record(journal, result, fingerprint);
+            return result;
+        } finally {
+            permits.release(slots);
+        }
+    }
+
+    private static List<Result> runChain(List<Analyses> analyses, Analyses.Combination combination, Semaphore permits,
+                                         ResultsJournal journal, String[] fingerprints) throws InterruptedException {
+        permits.acquire();
+        try {
+            List<Result> results = IncrementalTraining.run(analyses, combination);
+            for (int i = 0; i < results.size(); i++) record(journal, results.get(i), fingerprints[i]);
+            return results;
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Thread limitati dai core e dalla memoria libera rispetto al task piu' grande
+    private static int threads(Analyses.Profile[] profiles, int cores) {
+        long largest = 1;
+        for (Analyses.Profile profile : profiles)
+            if (profile != null) largest = Math.max(largest, profile.taskMemory());
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long byMemory = Math.max(1, available / largest);
+        return (int) Math.max(1, Math.min(cores, byMemory));
+    }
+}
@@ -0,0 +1,82 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.utils.Hashing;
+import weka.attributeSelection.AttributeSelection;
+import weka.attributeSelection.BestFirst;
+import weka.attributeSelection.CfsSubsetEval;
+import weka.core.Instances;
+import weka.filters.unsupervised.attribute.Remove;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+// Attributi scelti da CfsSubsetEval + BestFirst per un training set, identificato dallo sha256 del contenuto.
+// La ricerca si esegue una volta per release (e una volta sola tra esecuzioni diverse grazie alla copia su disco)
+public final class FeatureSelectionCache {
+    private static final Logger logger = Logger.getLogger("FeatureSelectionCache");
+    private final Path folder;
+    private final Map<String, int[]> selections;
+
+    public FeatureSelectionCache(Path folder) {
+        this.folder = folder;
+        this.selections = new ConcurrentHashMap<>();
+    }
+
+    // Indici degli attributi selezionati, classe compresa
+    public int[] selectedAttributes(Instances training) throws Exception {
+        String hash = Hashing.contentHash(training);
+        int[] selected = selections.get(hash);
+        if (selected == null) selected = readSelection(hash);
+        if (selected == null) {
+            AttributeSelection selection = new AttributeSelection();
+            selection.setEvaluator(new CfsSubsetEval());
+            selection.setSearch(new BestFirst());
+            selection.SelectAttributes(training);
+            selected = selection.selectedAttributes();
+            writeSelection(hash, selected);
+        }
+        selections.put(hash, selected);
+        return selected.clone();
+    }
+
+    // Filtro che tiene solo gli attributi selezionati: vale per training e testing della stessa release
+    public static Remove removeFilter(int[] selected, Instances format) throws Exception {
+        Remove remove = new Remove();
+        remove.setAttributeIndicesArray(selected);
+        remove.setInvertSelection(true);
+        remove.setInputFormat(format);
+        return remove;
+    }
+
+    private int[] readSelection(String hash) {
+        Path path = folder.resolve("%s.txt".formatted(hash));
+        if (!Files.exists(path)) return null;
+        try {
+            String text = Files.readString(path).trim();
+            if (text.isEmpty()) return new int[0];
+            return Arrays.stream(text.split(",")).mapToInt(Integer::parseInt).toArray();
+        } catch (IOException | NumberFormatException e) {
+            logger.info("Could not read cached selection: " + e);
+            return null;
+        }
+    }
+
+    private void writeSelection(String hash, int[] selected) {
+        try {
+            Files.createDirectories(folder);
+            Path temporary = Files.createTempFile(folder, "selection", ".tmp");
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < selected.length; i++) text.append(i == 0 ? "" : ",").append(selected[i]);
+            Files.writeString(temporary, text);
+            Files.move(temporary, folder.resolve("%s.txt".formatted(hash)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.info("Could not write cached selection: " + e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.Main.Result;
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.classifiers.lazy.IBk;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+// Training walk-forward incrementale per i classificatori aggiornabili (senza feature selection e sampling):
+// il modello della release i si ottiene da quello della release i-1 aggiungendo solo le istanze nuove.
+// Le label delle release gia' viste possono cambiare tra un prefisso e il successivo: in quel caso si riparte da zero
+final class IncrementalTraining {
+    private static final Logger logger = Logger.getLogger("IncrementalTraining");
+
+    private IncrementalTraining() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    static boolean supports(Analyses.Combination combination) {
+        return combination.featureSelection() == AnalysisVariables.FeatureSelection.NONE
+                && combination.sampling() == AnalysisVariables.Sampling.NONE
+                && combination.classifier() != AnalysisVariables.Classifiers.RANDOM_FOREST;
+    }
+
+    // Risultati della combinazione per ogni release di `analyses` (in ordine di release), null se la valutazione fallisce
+    static List<Result> run(List<Analyses> analyses, Analyses.Combination combination) {
+        List<Result> results = new ArrayList<>();
+        Classifier model = null;
+        Instances previous = null;
+        for (Analyses analysis : analyses) {
+            try {
+                Instances training = analysis.training();
+                Instances testing = analysis.testing();
+                if (model != null && isPrefixOf(previous, training)) {
+                    for (int i = previous.numInstances(); i < training.numInstances(); i++)
+                        ((UpdateableClassifier) model).updateClassifier(training.instance(i));
+                } else {
+                    model = newClassifier(combination.classifier());
+                    model.buildClassifier(training);
+                }
+                previous = training;
+                results.add(analysis.evaluateTrained(model, training, testing, combination));
+            } catch (Exception e) {
+                logger.info("errore nel training incrementale di %s: %s".formatted(combination, e));
+                model = null;
+                previous = null;
+                results.add(null);
+            }
+        }
+        return results;
+    }
+
+    private static Classifier newClassifier(AnalysisVariables.Classifiers classifierType) {
+        return switch (classifierType) {
+            case NAIVE_BAYES -> new NaiveBayesUpdateable();
+            case IBK -> new IBk();
+            case RANDOM_FOREST -> throw new IllegalArgumentException("RandomForest is not updateable");
+        };
+    }
+
+    // Vero se `training` inizia con tutte le istanze di `previous`, con gli stessi valori e le stesse label
+    private static boolean isPrefixOf(Instances previous, Instances training) {
+        if (!previous.equalHeaders(training) || previous.numInstances() > training.numInstances()) return false;
+        for (int i = 0; i < previous.numInstances(); i++)
+            if (!Arrays.equals(previous.instance(i).toDoubleArray(), training.instance(i).toDoubleArray())) return false;
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.utils.Hashing;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+// Istanze gia' lette dai file arff, identificate dallo sha256 del contenuto: in memoria le ultime `capacity`,
+// su disco in forma serializzata, cosi' ogni arff viene interpretato al massimo una volta
+public final class InstancesCache {
+    private static final Logger logger = Logger.getLogger("InstancesCache");
+    private final Path folder;
+    private final Map<String, Instances> recent;
+    // Evita di ricalcolare l'hash di un file non modificato
+    private final Map<Path, FileHash> hashes;
+    // Caricamenti in corso: chi manca lo stesso hash aspetta il primo invece di rileggere l'arff
+    private final Map<String, CompletableFuture<Instances>> loading;
+
+    private record FileHash(FileTime modified, long size, String hash) {
+    }
+
+    public InstancesCache(Path folder, int capacity) {
+        this.folder = folder;
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Instances> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.hashes = new HashMap<>();
+        this.loading = new ConcurrentHashMap<>();
+    }
+
+    // Copia delle istanze del file: chi la riceve puo' filtrarla senza toccare quella in cache
+    public Instances load(Path arff) throws IOException {
+        String hash = hashOf(arff);
+        Instances instances;
+        synchronized (this) {
+            instances = recent.get(hash);
+        }
+        if (instances == null) instances = loadOnce(hash, arff);
+        return new Instances(instances);
+    }
+
+    private Instances loadOnce(String hash, Path arff) throws IOException {
+        CompletableFuture<Instances> mine = new CompletableFuture<>();
+        CompletableFuture<Instances> pending = loading.putIfAbsent(hash, mine);
+        if (pending != null) return await(pending, arff);
+        try {
+            Instances instances;
+            // Un altro thread puo' aver finito tra il controllo in load e putIfAbsent
+            synchronized (this) {
+                instances = recent.get(hash);
+            }
+            if (instances == null) instances = readSerialized(hash);
+            if (instances == null) {
+                instances = parse(arff);
+                writeSerialized(hash, instances);
+            }
+            synchronized (this) {
+                recent.put(hash, instances);
+            }
+            mine.complete(instances);
+            return instances;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(hash, mine);
+        }
+    }
+
+    private static Instances await(CompletableFuture<Instances> pending, Path arff) throws IOException {
+        try {
+            return pending.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not load %s".formatted(arff), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading %s".formatted(arff));
+        }
+    }
+
+    private String hashOf(Path arff) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(arff);
+        long size = Files.size(arff);
+        synchronized (this) {
+            FileHash known = hashes.get(arff);
+            if (known != null && known.modified().equals(modified) && known.size() == size) return known.hash();
+        }
+        MessageDigest digest = Hashing.sha256();
+        try (InputStream in = new DigestInputStream(new BufferedInputStream(Files.newInputStream(arff)), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        String hash = Hashing.toHex(digest);
+        synchronized (this) {
+            hashes.put(arff, new FileHash(modified, size, hash));
+        }
+        return hash;
+    }
+
+    private static Instances parse(Path arff) throws IOException {
+        try {
+            Instances instances = ConverterUtils.DataSource.read(arff.toString());
+            if (instances.classIndex() == -1)
+                instances.setClassIndex(instances.numAttributes() - 1);
+            return instances;
+        } catch (Exception e) {
+            throw new IOException("Could not parse %s".formatted(arff), e);
+        }
+    }
+
+    private Instances readSerialized(String hash) {
+        Path path = folder.resolve("%s.ser".formatted(hash));
+        if (!Files.exists(path)) return null;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return (Instances) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // File incompleto o di una versione di weka diversa: si rilegge l'arff
+            logger.info("Could not read cached instances: " + e);
+            return null;
+        }
+    }
+
+    private void writeSerialized(String hash, Instances instances) {
+        try {
+            Files.createDirectories(folder);
+            // Scritto su un file temporaneo e rinominato: chi legge non vede mai un .ser a meta'
+            Path temporary = Files.createTempFile(folder, "instances", ".tmp");
+            try {
+                try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                    out.writeObject(instances);
+                }
+                Files.move(temporary, folder.resolve("%s.ser".formatted(hash)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            logger.info("Could not write cached instances: " + e);
+        }
+    }
+}
@@ -5,9 +5,11 @@ import it.uniroma2.gianlucaronzello.git.GitCommitEntry;
 import it.uniroma2.gianlucaronzello.git.GitException;
 import it.uniroma2.gianlucaronzello.git.JiraGitIntegration;
 import it.uniroma2.gianlucaronzello.jira.Jira;
+import it.uniroma2.gianlucaronzello.jira.JiraException;
 import it.uniroma2.gianlucaronzello.jira.model.JiraVersion;
 import it.uniroma2.gianlucaronzello.utils.DatasetPaths;
-import it.uniroma2.gianlucaronzello.utils.Metric;
+import it.uniroma2.gianlucaronzello.utils.Settings;
+import weka.core.Instances;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -21,34 +23,42 @@ public class Main {
 
     private static final Logger logger = Logger.getLogger("DatasetGenerator");
     public static void main(String[] args) {
-        try {
-            processProjects();
-        } catch (GitException e) {
-            logger.info("Git error: " + e);
-        } catch (Exception e) {
-            logger.info("Integration error: " + e);
-        }
-        analyzeProjects();
+        processProjects();
+        if (!Settings.inMemoryAnalysis()) analyzeProjects();
     }
 
-    private static void processProjects() throws IOException,GitException {
+    private static void processProjects() {
+        ColdStarts coldStarts = new ColdStarts(Paths.get("dataset", "cold-starts.properties"));
         for (int i = 0; i < ProjectList.names().length; i++) {
-            String project = ProjectList.names()[i];
-            String other = getOppositeProject(i);
+            // Un progetto che fallisce non ferma dataset e analisi dei successivi
+            try {
+                processProject(coldStarts, i);
+            } catch (GitException e) {
+                logger.info("Git error in %s: %s".formatted(ProjectList.names()[i], e));
+            } catch (JiraException e) {
+                logger.info("Jira error in %s: %s".formatted(ProjectList.names()[i], e));
+            } catch (Exception e) {
+                logger.info("Integration error in %s: %s".formatted(ProjectList.names()[i], e));
+            }
+        }
+    }
 
-            List<String> coldStartsProjects = prepareColdStartsProjects(other);
-            Jira jira = initializeJira(project, i);
+    private static void processProject(ColdStarts coldStarts, int i) throws IOException, GitException, JiraException {
+        String project = ProjectList.names()[i];
+        String other = getOppositeProject(i);
 
-            List<Double> coldStarts = calculateColdStarts(coldStartsProjects);
-            double medianColdStart = getMedian(coldStarts);
-            jira.applyProportionIncrement(medianColdStart);
+        List<String> coldStartsProjects = prepareColdStartsProjects(other);
+        Jira jira = initializeJira(project, i);
 
-            GitClass git = setupGitRepository(project, i);
+        double medianColdStart = getMedian(calculateColdStarts(coldStarts, coldStartsProjects));
+        jira.applyProportionIncrement(medianColdStart);
 
-            JiraGitIntegration integration = integrateJiraAndGit(jira, git);
-            Dataset dataset = prepareDataset( git, integration);
-            writeDatasetToFile(project, jira, dataset);
-        }
+        GitClass git = setupGitRepository(project, i);
+
+        JiraGitIntegration integration = integrateJiraAndGit(jira, git);
+        Dataset dataset = prepareDataset( git, integration);
+        if (Settings.exportDataset()) writeDatasetToFile(project, jira, dataset);
+        if (Settings.inMemoryAnalysis()) writeResultsToFile(project, analyzeDataset(project, jira, dataset));
     }
 
     private static String getOppositeProject(int i) {
@@ -61,18 +71,14 @@ public class Main {
         return coldStartsProjects;
     }
 
-    private static Jira initializeJira(String project, int index) {
+    private static Jira initializeJira(String project, int index) throws JiraException {
         return new Jira(project, ProjectList.additionalParams()[index]);
     }
 
-    private static List<Double> calculateColdStarts(List<String> coldStartsProjects) {
-        List<Double> coldStarts = new ArrayList<>();
-        for (String coldStartProject : coldStartsProjects) {
-            Jira jiraColdStartProject = new Jira(coldStartProject, "");
-            coldStarts.add(jiraColdStartProject.calculateProportionColdStart());
-        }
-        coldStarts.sort(Comparator.naturalOrder());
-        return coldStarts;
+    private static List<Double> calculateColdStarts(ColdStarts coldStarts, List<String> coldStartsProjects) throws JiraException {
+        List<Double> proportions = new ArrayList<>(coldStarts.calculate(coldStartsProjects, ""));
+        proportions.sort(Comparator.naturalOrder());
+        return proportions;
     }
 
     private static double getMedian(List<Double> coldStarts) {
@@ -90,7 +96,7 @@ public class Main {
     }
 
     private static JiraGitIntegration integrateJiraAndGit(Jira jira, GitClass git) throws GitException {
-        JiraGitIntegration integration = new JiraGitIntegration(git.getCommits());
+        JiraGitIntegration integration = new JiraGitIntegration(git.getCommits(), git.getTags());
         integration.findRevisions(jira.getVersions());
         for (Pair<JiraVersion, GitCommitEntry> version : integration.versions()) {
             git.loadClassesOfRevision(version.second());
@@ -104,16 +110,15 @@ public class Main {
         return dataset;
     }
 
+    // CSV dei prefissi e oracolo, poi gli arff costruiti da questi (anche quando le analisi non li leggono)
     private static void writeDatasetToFile(String project, Jira jira, Dataset dataset) throws IOException {
-        for (int j = 2; j <= jira.getVersions().size(); j++) {
-            try{
-            dataset.setBuggy(j);}
-            catch (GitException e){
-                logger.info("Git execption in write dataset to file");
-            }
-            dataset.writeToFile(project, j);
+        try {
+            dataset.writeDataset(project, jira.getVersions().size());
+        } catch (GitException e) {
+            logger.info("Git execption in write dataset to file");
+            return;
         }
-        dataset.writeOracle(project, jira.getVersions().size());
+        new CSVManagement(project).generationArff();
     }
 
     private static void analyzeProjects() {
@@ -123,15 +128,46 @@ public class Main {
         }
     }
 
+    // Le istanze di training e testing di ogni release vengono costruite direttamente dal dataset
+    private static List<Main.Result> analyzeDataset(String project, Jira jira, Dataset dataset) throws GitException {
+        int nReleases = jira.getVersions().size();
+        dataset.label(nReleases);
+        List<Analyses> analyses = new ArrayList<>();
+        for (int i = 2; i < nReleases; i++) {
+            // training-i: release 1..i-1 con le label del prefisso i, testing-i: release i con le label dell'oracolo
+            Instances training = dataset.toInstances(project, 0, i - 1, i);
+            Instances testing = dataset.toInstances(project, i - 1, i, Dataset.ORACLE);
+            analyses.add(new Analyses(project, i, training, testing));
+        }
+        return evaluate(project, analyses);
+    }
+
     private static List<Main.Result> analyzeProject(String project) {
-        List<Main.Result> results = new ArrayList<>();
         CSVManagement cm = new CSVManagement(project);
         int nReleases = cm.getNumberReleases();
+        // Arff dai CSV su disco: se il dataset e' appena stato esportato i blocchi vengono riusati
         cm.generationArff();
 
-        for (int i = 2; i < nReleases; i++) {
-            Analyses analysis = new Analyses(project, i);
-            results.addAll(analysis.performAnalysis());
+        List<Analyses> analyses = new ArrayList<>();
+        for (int i = 2; i < nReleases; i++) analyses.add(new Analyses(project, i));
+        return evaluate(project, analyses);
+    }
+
+    // I risultati vengono registrati nel journal man mano: un'esecuzione interrotta riparte dalle combinazioni mancanti
+    private static List<Main.Result> evaluate(String project, List<Analyses> analyses) {
+        ResultsJournal opened;
+        try {
+            opened = ResultsJournal.open(project);
+        } catch (IOException e) {
+            logger.warning("Results journal unavailable for %s, results will not be checkpointed: %s".formatted(project, e));
+            return new EvaluationScheduler().run(analyses);
+        }
+        // Il journal viene chiuso (e svuotato su disco) anche se lo scheduler lancia un'eccezione
+        List<Main.Result> results = List.of();
+        try (ResultsJournal journal = opened) {
+            results = new EvaluationScheduler().run(analyses, journal);
+        } catch (IOException e) {
+            logger.warning("Could not close results journal for %s: %s".formatted(project, e));
         }
         return results;
     }
@@ -146,7 +182,7 @@ public class Main {
         try {
             Files.write(path, text.getBytes());
         } catch (IOException e) {
-            logger.info("Failed to write results for project: " + project);
+            logger.warning("Failed to write results for project %s: %s".formatted(project, e));
         }
     }
 
@@ -174,9 +210,5 @@ public class Main {
     }
 
 
-    public record MetricValue(String aClass, int version, Metric metric, Object value) {
-    }
-
-
 
 }
\ No newline at end of file
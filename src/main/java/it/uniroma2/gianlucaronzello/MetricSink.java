@@ -0,0 +1,9 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.utils.Metric;
+
+// Destinazione dei valori calcolati dai producer delle metriche: nessun oggetto allocato per valore
+@FunctionalInterface
+public interface MetricSink {
+    void accept(int classId, int version, Metric metric, long value);
+}
@@ -0,0 +1,69 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.utils.Metric;
+
+import java.util.*;
+
+// Metriche del dataset per colonne: ogni classe ha un id intero, ogni (versione, metrica) un int[] indicizzato
+// per id. Buggy dipende dal prefisso e lo calcola Dataset. I valori diventano testo solo quando il dataset viene scritto
+public final class MetricStore implements MetricSink {
+    private final Map<String, Integer> ids;
+    private final List<String> classes;
+    private final int[][] classesOfVersion;
+    private final int[][][] columns;
+
+    public MetricStore(List<List<String>> classesByVersion) {
+        this.ids = new HashMap<>();
+        this.classes = new ArrayList<>();
+        int numberOfVersions = classesByVersion.size();
+        this.classesOfVersion = new int[numberOfVersions][];
+        for (int version = 0; version < numberOfVersions; version++) {
+            List<String> classList = classesByVersion.get(version);
+            int[] versionIds = new int[classList.size()];
+            for (int i = 0; i < versionIds.length; i++) {
+                String aClass = classList.get(i);
+                Integer id = ids.get(aClass);
+                if (id == null) {
+                    id = classes.size();
+                    ids.put(aClass, id);
+                    classes.add(aClass);
+                }
+                versionIds[i] = id;
+            }
+            classesOfVersion[version] = versionIds;
+        }
+        // Le colonne sono allocate subito: i task paralleli scrivono celle disgiunte senza sincronizzarsi
+        this.columns = new int[numberOfVersions][Metric.values().length][classes.size()];
+    }
+
+    // Id della classe, -1 se non compare in nessuna versione
+    public int idOf(String aClass) {
+        return ids.getOrDefault(aClass, -1);
+    }
+
+    public String classOf(int id) {
+        return classes.get(id);
+    }
+
+    public Set<String> classes() {
+        return Collections.unmodifiableSet(ids.keySet());
+    }
+
+    // Id delle classi della versione, nell'ordine della lista di classi della revisione
+    public int[] classesOf(int version) {
+        return classesOfVersion[version];
+    }
+
+    public int get(int id, int version, Metric metric) {
+        return columns[version][metric.ordinal()][id];
+    }
+
+    public void set(int id, int version, Metric metric, int value) {
+        columns[version][metric.ordinal()][id] = value;
+    }
+
+    @Override
+    public void accept(int classId, int version, Metric metric, long value) {
+        set(classId, version, metric, Math.toIntExact(value));
+    }
+}
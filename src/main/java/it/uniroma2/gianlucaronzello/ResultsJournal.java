@@ -0,0 +1,109 @@
+package it.uniroma2.gianlucaronzello;
+
+import it.uniroma2.gianlucaronzello.Main.Result;
+import it.uniroma2.gianlucaronzello.utils.DatasetPaths;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+// Registro dei risultati di un progetto: ogni Result viene accodato (e scritto su disco) appena la valutazione
+// termina, con chiave (progetto, release, classificatore, feature selection, sampling) e l'impronta dei dati
+// della release. Dopo un'interruzione le combinazioni gia' registrate sugli stessi dati non vengono rivalutate
+public final class ResultsJournal implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger("ResultsJournal");
+    private final String project;
+    private final Map<String, Result> done;
+    private final Writer writer;
+
+    private ResultsJournal(String project, Map<String, Result> done, Writer writer) {
+        this.project = project;
+        this.done = done;
+        this.writer = writer;
+    }
+
+    public static ResultsJournal open(String project) throws IOException {
+        Path path = DatasetPaths.fromProject(project).resolve("results.journal");
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Map<String, Result> done = new HashMap<>();
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                // Righe troncate da un'interruzione durante la scrittura non superano il controllo del checksum
+                int separator = line.lastIndexOf(',');
+                if (separator == -1 || !line.substring(separator + 1).equals(checksum(line.substring(0, separator)))) continue;
+                String[] values = line.substring(0, separator).split(",");
+                if (values.length != 10 || !values[0].equals(project)) continue;
+                try {
+                    Result result = new Result(Integer.parseInt(values[1]),
+                            AnalysisVariables.Classifiers.valueOf(values[2]),
+                            AnalysisVariables.FeatureSelection.valueOf(values[3]),
+                            AnalysisVariables.Sampling.valueOf(values[4]),
+                            Double.parseDouble(values[6]), Double.parseDouble(values[7]),
+                            Double.parseDouble(values[8]), Double.parseDouble(values[9]));
+                    done.put(key(result.releases(), new Analyses.Combination(result.classifier(),
+                            result.featureSelection(), result.sampling()), values[5]), result);
+                } catch (IllegalArgumentException e) {
+                    logger.info("Skipping malformed journal line: " + line);
+                }
+            }
+            terminateLastLine(path);
+        }
+        Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return new ResultsJournal(project, done, writer);
+    }
+
+    // Una riga troncata non deve fondersi con la prossima riga accodata
+    private static void terminateLastLine(Path path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            if (file.length() == 0) return;
+            file.seek(file.length() - 1);
+            if (file.read() != '\n') file.write('\n');
+        }
+    }
+
+    private static String key(int release, Analyses.Combination combination, String fingerprint) {
+        return "%d,%s,%s,%s,%s".formatted(release, combination.classifier(), combination.featureSelection(),
+                combination.sampling(), fingerprint);
+    }
+
+    private static String checksum(String line) {
+        CRC32 crc = new CRC32();
+        crc.update(line.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    // Risultato gia' registrato per la combinazione sugli stessi dati, null se va calcolato
+    public synchronized Result find(int release, Analyses.Combination combination, String fingerprint) {
+        return done.get(key(release, combination, fingerprint));
+    }
+
+    public synchronized void record(Result result, String fingerprint) throws IOException {
+        Analyses.Combination combination = new Analyses.Combination(result.classifier(), result.featureSelection(), result.sampling());
+        String key = key(result.releases(), combination, fingerprint);
+        if (done.containsKey(key)) return;
+        // Valori completi (non arrotondati) per ricostruire il Result alla ripresa
+        String line = String.join(",", List.of(project, key,
+                Double.toString(result.precision()), Double.toString(result.recall()),
+                Double.toString(result.auc()), Double.toString(result.kappa())));
+        writer.write(line);
+        writer.write(',');
+        writer.write(checksum(line));
+        writer.write('\n');
+        writer.flush();
+        done.put(key, result);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,246 @@
+package it.uniroma2.gianlucaronzello.git;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.logging.Logger;
+
+// Indice dei commit raggiungibili da tutti i ref, salvato nella cartella della cache git del progetto.
+// I record vengono solo accodati: ad ogni avvio si visitano i commit successivi agli ultimi tip indicizzati.
+final class CommitIndex {
+    private static final Logger logger = Logger.getLogger("CommitIndex");
+    private static final String RECORDS_FILE = "ispw2-commits.idx";
+    private static final String TIPS_FILE = "ispw2-commits.tips";
+    private final Repository repository;
+    private final Path records;
+    private final Path tips;
+
+    // `folder` deve esistere
+    CommitIndex(Repository repository, Path folder) {
+        this.repository = repository;
+        this.records = folder.resolve(RECORDS_FILE);
+        this.tips = folder.resolve(TIPS_FILE);
+    }
+
+    private record CommitRecord(ObjectId id, ObjectId tree, ObjectId[] parents, long time, int offset,
+                                String author, String message) {
+    }
+
+    // Commit senza duplicati, in ordine crescente di data
+    List<GitCommitEntry> load() throws IOException {
+        List<CommitRecord> indexed = readRecords();
+        Set<ObjectId> indexedTips = readTips();
+        Set<ObjectId> currentTips = currentTips();
+        if (!currentTips.equals(indexedTips)) {
+            try (RevWalk walk = new RevWalk(repository)) {
+                if (!isFastForward(walk, indexedTips, currentTips)) {
+                    // Storia riscritta: l'indice viene ricostruito da zero
+                    Files.deleteIfExists(records);
+                    indexed.clear();
+                    indexedTips = Set.of();
+                }
+                List<CommitRecord> added = walkNewCommits(walk, indexedTips, currentTips);
+                appendRecords(added);
+                writeTips(currentTips);
+                indexed.addAll(added);
+            }
+        }
+        return toEntries(indexed);
+    }
+
+    private Set<ObjectId> currentTips() throws IOException {
+        Set<ObjectId> result = new HashSet<>();
+        try (RevWalk walk = new RevWalk(repository)) {
+            for (Ref ref : repository.getRefDatabase().getRefs()) {
+                ObjectId id = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+                if (id == null) continue;
+                RevObject object = walk.peel(walk.parseAny(id));
+                if (object instanceof RevCommit) result.add(object.copy());
+            }
+        }
+        return result;
+    }
+
+    // Vero se ogni tip gia' indicizzato e' ancora raggiungibile da uno dei tip correnti
+    private boolean isFastForward(RevWalk walk, Set<ObjectId> indexedTips, Set<ObjectId> currentTips) throws IOException {
+        List<RevCommit> heads = new ArrayList<>();
+        for (ObjectId tip : currentTips) heads.add(walk.parseCommit(tip));
+        for (ObjectId tip : indexedTips) {
+            if (currentTips.contains(tip)) continue;
+            RevCommit old;
+            try {
+                old = walk.parseCommit(tip);
+            } catch (MissingObjectException e) {
+                return false;
+            }
+            boolean reachable = false;
+            for (RevCommit head : heads) {
+                if (walk.isMergedInto(old, head)) {
+                    reachable = true;
+                    break;
+                }
+            }
+            if (!reachable) return false;
+        }
+        return true;
+    }
+
+    private List<CommitRecord> walkNewCommits(RevWalk walk, Set<ObjectId> indexedTips, Set<ObjectId> currentTips) throws IOException {
+        walk.reset();
+        for (ObjectId tip : currentTips) walk.markStart(walk.parseCommit(tip));
+        for (ObjectId tip : indexedTips) walk.markUninteresting(walk.parseCommit(tip));
+        List<CommitRecord> added = new ArrayList<>();
+        for (RevCommit commit : walk) {
+            ObjectId[] parents = new ObjectId[commit.getParentCount()];
+            for (int i = 0; i < parents.length; i++) parents[i] = commit.getParent(i).copy();
+            added.add(new CommitRecord(commit.copy(), commit.getTree().copy(), parents,
+                    commit.getCommitTime(), commit.getCommitterIdent().getTimeZoneOffset(),
+                    commit.getAuthorIdent().getName(), commit.getShortMessage()));
+        }
+        return added;
+    }
+
+    private List<GitCommitEntry> toEntries(List<CommitRecord> indexed) {
+        Map<ObjectId, ObjectId> treeOfCommit = new HashMap<>();
+        for (CommitRecord commitRecord : indexed) treeOfCommit.put(commitRecord.id(), commitRecord.tree());
+        // I record sono in ordine di visita (data decrescente)
+        List<CommitRecord> ordered = new ArrayList<>(indexed);
+        Collections.reverse(ordered);
+        ordered.sort(Comparator.comparingLong(CommitRecord::time));
+        List<GitCommitEntry> entries = new ArrayList<>(ordered.size());
+        Set<ObjectId> seen = new HashSet<>();
+        try (RevWalk walk = new RevWalk(repository)) {
+            for (CommitRecord commitRecord : ordered) {
+                // Un aggiornamento interrotto prima di salvare i tip puo' aver accodato due volte lo stesso commit
+                if (!seen.add(commitRecord.id())) continue;
+                List<RevTree> parents = new ArrayList<>(commitRecord.parents().length);
+                for (ObjectId parent : commitRecord.parents()) {
+                    ObjectId parentTree = treeOfCommit.get(parent);
+                    if (parentTree != null) parents.add(walk.lookupTree(parentTree));
+                }
+                LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochSecond(commitRecord.time()),
+                        ZoneOffset.ofTotalSeconds(commitRecord.offset() * 60));
+                entries.add(new GitCommitEntry(commitRecord.id().getName(), commitRecord.message(), date,
+                        commitRecord.author(), walk.lookupTree(commitRecord.tree()), parents));
+            }
+        }
+        return entries;
+    }
+
+    private List<CommitRecord> readRecords() {
+        List<CommitRecord> result = new ArrayList<>();
+        if (!Files.exists(records)) return result;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(records)))) {
+            int count = in.readInt();
+            while (count != -1) {
+                for (int i = 0; i < count; i++) result.add(readRecord(in));
+                count = readCount(in);
+            }
+        } catch (IOException e) {
+            // Indice incompleto (es. scrittura interrotta): si ricostruisce
+            logger.info("Could not read commit index: " + e);
+            result.clear();
+            try {
+                Files.deleteIfExists(records);
+                Files.deleteIfExists(tips);
+            } catch (IOException ex) {
+                logger.info("Could not reset commit index: " + ex);
+            }
+        }
+        return result;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        try {
+            return in.readInt();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private static CommitRecord readRecord(DataInputStream in) throws IOException {
+        ObjectId id = readId(in);
+        ObjectId tree = readId(in);
+        ObjectId[] parents = new ObjectId[in.readUnsignedByte()];
+        for (int i = 0; i < parents.length; i++) parents[i] = readId(in);
+        long time = in.readLong();
+        int offset = in.readInt();
+        String author = readString(in);
+        String message = readString(in);
+        return new CommitRecord(id, tree, parents, time, offset, author, message);
+    }
+
+    // Ogni aggiornamento accoda un blocco: numero di record seguito dai record
+    private void appendRecords(List<CommitRecord> added) throws IOException {
+        if (added.isEmpty()) return;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(records.toFile(), true)))) {
+            out.writeInt(added.size());
+            for (CommitRecord commitRecord : added) {
+                writeId(out, commitRecord.id());
+                writeId(out, commitRecord.tree());
+                out.writeByte(commitRecord.parents().length);
+                for (ObjectId parent : commitRecord.parents()) writeId(out, parent);
+                out.writeLong(commitRecord.time());
+                out.writeInt(commitRecord.offset());
+                writeString(out, commitRecord.author());
+                writeString(out, commitRecord.message());
+            }
+        }
+    }
+
+    private Set<ObjectId> readTips() throws IOException {
+        Set<ObjectId> result = new HashSet<>();
+        if (!Files.exists(tips) || !Files.exists(records)) return result;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(tips)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) result.add(readId(in));
+        }
+        return result;
+    }
+
+    private void writeTips(Set<ObjectId> currentTips) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tips)))) {
+            out.writeInt(currentTips.size());
+            for (ObjectId tip : currentTips) writeId(out, tip);
+        }
+    }
+
+    private static ObjectId readId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        in.readFully(raw);
+        return ObjectId.fromRaw(raw);
+    }
+
+    private static void writeId(DataOutputStream out, ObjectId id) throws IOException {
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        id.copyRawTo(raw, 0);
+        out.write(raw);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -1,10 +1,10 @@
 package it.uniroma2.gianlucaronzello.git;
 
 import it.uniroma2.gianlucaronzello.Pair;
+import it.uniroma2.gianlucaronzello.utils.Settings;
 import org.eclipse.jgit.api.DiffCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.NoHeadException;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.Edit;
@@ -16,18 +16,19 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.patch.FileHeader;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
-import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -39,6 +40,8 @@ public class GitClass {
     private final File folder;
     private final Repository repository;
     private final List<GitCommitEntry> commits;
+    private final LocCache locCache;
+    private GitCommitEntry firstCommit;
     public GitClass(String project, String url, String branch) throws GitException {
 
         this.folder = new File(project);
@@ -57,13 +60,32 @@ public class GitClass {
             logger.info("git classs error");
         }
         this.repository= loadLocal(folder);
-        this.commits = getCommits(repository);
+        Path cacheFolder = createCacheFolder();
+        this.commits = getCommits(repository, cacheFolder);
+        this.locCache = createLocCache(cacheFolder);
 
     }
     public GitClass(String folderPath) throws GitException {
         this.folder = new File(folderPath);
         this.repository = loadLocal(folder);
-        this.commits = getCommits(repository);
+        Path cacheFolder = createCacheFolder();
+        this.commits = getCommits(repository, cacheFolder);
+        this.locCache = createLocCache(cacheFolder);
+    }
+    // I file di cache non finiscono nel repository analizzato, salvo richiesta esplicita
+    private Path createCacheFolder() throws GitException {
+        if (Settings.gitCacheInRepository()) return repository.getDirectory().toPath();
+        Path cacheFolder = Settings.gitCacheFolder(folder.toPath().toAbsolutePath().normalize().getFileName().toString());
+        try {
+            Files.createDirectories(cacheFolder);
+        } catch (IOException e) {
+            throw new GitException("Could not create cache folder", e);
+        }
+        return cacheFolder;
+    }
+    private static LocCache createLocCache(Path cacheFolder) {
+        if (!Settings.locCacheOnDisk()) return new LocCache(null);
+        return new LocCache(cacheFolder.resolve("ispw2-loc.cache"));
     }
     public record GitDiffEntry(DiffEntry entry, int added, int deleted) {
         public int touched() {
@@ -86,23 +108,13 @@ public class GitClass {
         }
     }
 
-    public List<GitCommitEntry> getCommits(Repository repository) throws GitException {
-        List<GitCommitEntry> entries = new ArrayList<>();
-        try (Git git = new Git(repository)) {
-            for (Ref branch : git.branchList().call()) {
-                for (RevCommit commit : git.log().all().add(repository.resolve(branch.getName())).call())
-                    entries.add(commitFromRevCommit(commit));
-            }
-        } catch (GitAPIException e) {
-            throw new GitException("Unable to get the log", e);
-        } catch (AmbiguousObjectException | IncorrectObjectTypeException e) {
-            throw new GitException("Not a commit", e);
+    public List<GitCommitEntry> getCommits(Repository repository, Path cacheFolder) throws GitException {
+        try {
+            // Ordine crescente per data, un solo elemento per commit anche se raggiungibile da piu' branch
+            return new CommitIndex(repository, cacheFolder).load();
         } catch (IOException e) {
             throw new GitException("IO failure. Could not access refs", e);
         }
-        //Ordine crescente per data
-        Collections.reverse(entries);
-        return entries;
     }
 
     private GitCommitEntry commitFromRevCommit(RevCommit commit) {
@@ -117,9 +129,41 @@ public class GitClass {
     public List<GitCommitEntry> getCommits() {
         return commits;
     }
+    // Nome del tag -> hash del commit a cui punta
+    public Map<String, String> getTags() throws GitException {
+        Map<String, String> tags = new HashMap<>();
+        try (RevWalk walk = new RevWalk(repository)) {
+            for (Ref ref : repository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS)) {
+                RevObject object = walk.peel(walk.parseAny(ref.getObjectId()));
+                if (object instanceof RevCommit)
+                    tags.put(Repository.shortenRefName(ref.getName()), object.getName());
+            }
+            return tags;
+        } catch (IOException e) {
+            throw new GitException("IO failure. Could not access refs", e);
+        }
+    }
+    // Visitatore dei file java di una revisione: riceve path, blob e il reader condiviso dal walk
+    @FunctionalInterface
+    public interface ClassVisitor {
+        void visit(String path, ObjectId blobId, ObjectReader reader) throws IOException;
+    }
     public void loadClassesOfRevision(GitCommitEntry version) throws GitException {
-        try (TreeWalk walk = new TreeWalk(repository)) {
-            List<String> classes = new ArrayList<>();
+        List<String> classes = new ArrayList<>();
+        visitClassesOfRevision(version, (path, blobId, reader) -> classes.add(path));
+        version.setClassList(classes);
+    }
+    public GitSession openSession() {
+        return new GitSession(repository);
+    }
+    public void visitClassesOfRevision(GitCommitEntry version, ClassVisitor visitor) throws GitException {
+        try (GitSession session = openSession()) {
+            visitClassesOfRevision(session, version, visitor);
+        }
+    }
+    // Un solo TreeWalk ricorsivo per revisione, con un unico ObjectReader per tutti i blob
+    public void visitClassesOfRevision(GitSession session, GitCommitEntry version, ClassVisitor visitor) throws GitException {
+        try (TreeWalk walk = new TreeWalk(repository, session.reader())) {
             // Set base commit
             walk.addTree(version.tree());
             // Explore sub-folders
@@ -127,42 +171,40 @@ public class GitClass {
             // Exclude non-java files
             walk.setFilter(PathSuffixFilter.create(".java"));
             // Iterate until there are files
-            while (walk.next()) classes.add(walk.getPathString());
-            version.setClassList(classes);
+            while (walk.next()) visitor.visit(walk.getPathString(), walk.getObjectId(0), session.reader());
         } catch (IOException e) {
             throw new GitException("IO failure.", e);
         }
     }
-    public String getContentsOfClass(GitCommitEntry commit, String fileName) throws GitException {
-        try (TreeWalk walk = TreeWalk.forPath(repository, fileName, commit.tree()); ObjectReader reader = repository.newObjectReader()) {
-            ObjectId blobId = walk.getObjectId(0);
-            ObjectLoader loader = reader.open(blobId);
-            return new String(loader.getBytes(), StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            throw new GitException("Corrupt git object", e);
+    // Numero di righe di ogni classe della revisione, letto dal blob solo se non gia' in cache
+    public Map<String, Integer> getLinesOfClasses(GitSession session, GitCommitEntry revision) throws GitException {
+        Map<String, Integer> lines = new HashMap<>();
+        try {
+            visitClassesOfRevision(session, revision, (path, blobId, reader) -> lines.put(path, locCache.linesOf(reader, blobId)));
+            return lines;
+        } finally {
+            locCache.flush();
         }
     }
-    public GitCommitEntry getFirstCommit() throws GitException {
-        try {
-            RevWalk walk = new RevWalk(repository);
+    public synchronized GitCommitEntry getFirstCommit() throws GitException {
+        // HEAD non cambia durante l'esecuzione: il walk completo si fa una volta sola
+        if (firstCommit != null) return firstCommit;
+        try (RevWalk walk = new RevWalk(repository)) {
             ObjectId head = repository.resolve(Constants.HEAD);
             RevCommit root = walk.parseCommit(head);
             walk.sort(RevSort.REVERSE);
             walk.markStart(root);
-            return commitFromRevCommit(walk.next());
+            firstCommit = commitFromRevCommit(walk.next());
+            return firstCommit;
         } catch (AmbiguousObjectException | IncorrectObjectTypeException e) {
             throw new GitException("Not a commit", e);
         } catch (IOException e) {
             throw new GitException("IO exception", e);
         }
     }
-    public Map<String, GitDiffEntry> getDifferences(GitCommitEntry first, GitCommitEntry second) throws GitException {
-        // Create a formatter disabling output
-        try (DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-            // Set current repository
-            diffFormatter.setRepository(repository);
-            // Exclude non-java files
-            diffFormatter.setPathFilter(PathSuffixFilter.create(".java"));
+    public Map<String, GitDiffEntry> getDifferences(GitSession session, GitCommitEntry first, GitCommitEntry second) throws GitException {
+        try {
+            DiffFormatter diffFormatter = session.diffFormatter();
             // Get diffs between `first` and `second` commits
             List<DiffEntry> diffs = diffFormatter.scan(first.tree(), second.tree());
             // List of computed differences
@@ -199,52 +241,62 @@ public class GitClass {
         }
         return new Pair<>(added, deleted);
     }
-    public List<GitDiffEntry> getAllDifferencesOfClass(GitCommitEntry first, GitCommitEntry second, String aClass) throws GitException {
-
-        List<GitCommitEntry> commitsInBetween = getAllCommitsOfClass( first, second, aClass);
-        return getAllDifferencesOfClass( commitsInBetween, aClass);
-    }
-    public List<GitCommitEntry> getAllCommitsOfClass( GitCommitEntry first, GitCommitEntry second, String path) throws GitException {
-        try (Git git = new Git(repository)) {
-            ObjectId firstId = ObjectId.fromString(first.hash());
-            ObjectId secondId = ObjectId.fromString(second.hash());
-            List<GitCommitEntry> entries = new ArrayList<>();
-            git.log().addRange(firstId, secondId).addPath(path).call().iterator().forEachRemaining(c -> entries.add(commitFromRevCommit(c)));
-            return entries;
+    // Un solo RevWalk sul range (first, second]: ogni commit viene confrontato una volta con i suoi parent
+    public GitHistory getHistory(GitSession session, GitCommitEntry first, GitCommitEntry second) throws GitException {
+        RevWalk walk = session.walk();
+        try {
+            walk.reset();
+            walk.markStart(walk.parseCommit(ObjectId.fromString(second.hash())));
+            walk.markUninteresting(walk.parseCommit(ObjectId.fromString(first.hash())));
+            GitHistory history = new GitHistory();
+            for (RevCommit commit : walk)
+                history.add(commitFromRevCommit(commit), getDifferencesWithParents(walk, session.diffFormatter(), commit));
+            return history;
         } catch (MissingObjectException e) {
             throw new GitException("Missing entry", e);
+        } catch (IncorrectObjectTypeException e) {
+            throw new GitException("Not a commit", e);
         } catch (IOException e) {
-            throw new GitException("IO", e);
-        } catch (NoHeadException e) {
-            throw new GitException("Could not find HEAD", e);
-        } catch (GitAPIException e) {
-            throw new GitException("Could not call git API", e);
+            throw new GitException("Could not walk history", e);
         }
     }
-    private List<GitDiffEntry> getAllDifferencesOfClass(List<GitCommitEntry> commitsInBetween, String path) throws GitException {
-        try (DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-            diffFormatter.setRepository(repository);
-            diffFormatter.setPathFilter(PathFilter.create(path));
-            List<GitDiffEntry> diffEntries = new ArrayList<>();
-            if (commitsInBetween.isEmpty()) return diffEntries;
-            GitCommitEntry previous = commitsInBetween.get(0);
-            for (int i = 1; i < commitsInBetween.size(); i++) {
-                GitCommitEntry current = commitsInBetween.get(i);
-                List<DiffEntry> diffs = diffFormatter.scan(previous.tree(), current.tree());
-                for (DiffEntry diff : diffs) {
-                    FileHeader header = diffFormatter.toFileHeader(diff);
-                    Pair<Integer, Integer> addedAndDeleted = calculateAddedAndDeleted(header.toEditList());
-                    GitDiffEntry entry = new GitDiffEntry(diff, addedAndDeleted.first(), addedAndDeleted.second());
-                    diffEntries.add(entry);
-                }
-            }
-            return diffEntries;
-        } catch (CorruptObjectException e) {
-            throw new GitException("Corrupt entry", e);
-        } catch (MissingObjectException e) {
-            throw new GitException("Missing Entry", e);
+    private Map<String, GitDiffEntry> getDifferencesWithParents(RevWalk walk, DiffFormatter diffFormatter, RevCommit commit) throws IOException {
+        Map<String, GitDiffEntry> differences = new HashMap<>();
+        RevTree firstParent = commit.getParentCount() > 0 ? walk.parseCommit(commit.getParent(0)).getTree() : null;
+        for (DiffEntry diff : diffFormatter.scan(firstParent, commit.getTree())) {
+            FileHeader header = diffFormatter.toFileHeader(diff);
+            Pair<Integer, Integer> addedAndDeleted = calculateAddedAndDeleted(header.toEditList());
+            differences.put(pathOf(diff), new GitDiffEntry(diff, addedAndDeleted.first(), addedAndDeleted.second()));
+        }
+        // Come git log con path: un merge tocca un file solo se differisce da tutti i parent
+        for (int i = 1; i < commit.getParentCount() && !differences.isEmpty(); i++) {
+            Set<String> changed = new HashSet<>();
+            for (DiffEntry diff : diffFormatter.scan(walk.parseCommit(commit.getParent(i)).getTree(), commit.getTree()))
+                changed.add(pathOf(diff));
+            differences.keySet().retainAll(changed);
+        }
+        return differences;
+    }
+    private static String pathOf(DiffEntry diff) {
+        return diff.getChangeType() == DiffEntry.ChangeType.DELETE ? diff.getOldPath() : diff.getNewPath();
+    }
+    // Classi tra `candidates` modificate (e non eliminate) dal commit, con un solo TreeWalk sul diff dal parent
+    public List<String> getModifiedClassesOfCommit(GitCommitEntry commit, Set<String> candidates) throws GitException {
+        // Per i merge (e il primo commit) serve il diff rispetto a ogni parent
+        if (commit.parents().size() != 1)
+            return getModifiedClassesOfCommit(commit).stream().filter(candidates::contains).toList();
+        try (ObjectReader reader = repository.newObjectReader(); TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(commit.parents().get(0));
+            treeWalk.addTree(commit.tree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(AndTreeFilter.create(PathSuffixFilter.create(".java"), TreeFilter.ANY_DIFF));
+            List<String> modified = new ArrayList<>();
+            while (treeWalk.next())
+                if (treeWalk.getRawMode(1) != 0 && candidates.contains(treeWalk.getPathString()))
+                    modified.add(treeWalk.getPathString());
+            return modified;
         } catch (IOException e) {
-            throw new GitException("Could not load commits", e);
+            throw new GitException("Tree is invalid", e);
         }
     }
     public List<String> getModifiedClassesOfCommit(GitCommitEntry commit) throws GitException {
@@ -0,0 +1,32 @@
+package it.uniroma2.gianlucaronzello.git;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Indice per path dei commit (e delle relative differenze) compresi in un range di release
+public final class GitHistory {
+    private final Map<String, List<GitCommitEntry>> commitsOfClass;
+    private final Map<String, List<GitClass.GitDiffEntry>> differencesOfClass;
+
+    GitHistory() {
+        this.commitsOfClass = new HashMap<>();
+        this.differencesOfClass = new HashMap<>();
+    }
+
+    void add(GitCommitEntry commit, Map<String, GitClass.GitDiffEntry> differences) {
+        for (Map.Entry<String, GitClass.GitDiffEntry> difference : differences.entrySet()) {
+            commitsOfClass.computeIfAbsent(difference.getKey(), k -> new ArrayList<>()).add(commit);
+            differencesOfClass.computeIfAbsent(difference.getKey(), k -> new ArrayList<>()).add(difference.getValue());
+        }
+    }
+
+    public List<GitCommitEntry> commitsOfClass(String path) {
+        return commitsOfClass.getOrDefault(path, List.of());
+    }
+
+    public List<GitClass.GitDiffEntry> differencesOfClass(String path) {
+        return differencesOfClass.getOrDefault(path, List.of());
+    }
+}
@@ -0,0 +1,44 @@
+package it.uniroma2.gianlucaronzello.git;
+
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+// Reader, RevWalk e DiffFormatter di un singolo thread: JGit non permette di condividerli tra thread
+public final class GitSession implements AutoCloseable {
+    private final ObjectReader reader;
+    private final RevWalk walk;
+    private final DiffFormatter diffFormatter;
+
+    GitSession(Repository repository) {
+        this.reader = repository.newObjectReader();
+        this.walk = new RevWalk(reader);
+        // Create a formatter disabling output
+        this.diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
+        diffFormatter.setReader(reader, repository.getConfig());
+        // Exclude non-java files
+        diffFormatter.setPathFilter(PathSuffixFilter.create(".java"));
+    }
+
+    ObjectReader reader() {
+        return reader;
+    }
+
+    RevWalk walk() {
+        return walk;
+    }
+
+    DiffFormatter diffFormatter() {
+        return diffFormatter;
+    }
+
+    @Override
+    public void close() {
+        diffFormatter.close();
+        walk.close();
+        reader.close();
+    }
+}
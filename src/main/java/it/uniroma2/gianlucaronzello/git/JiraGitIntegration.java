@@ -6,9 +6,11 @@ import it.uniroma2.gianlucaronzello.jira.model.JiraVersion;
 
 import java.io.Serial;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 class NotFoundException extends Exception {
     @Serial
@@ -20,14 +22,60 @@ class NotFoundException extends Exception {
 }
 public class JiraGitIntegration {
     private static final Logger logger = Logger.getLogger("Integration");
+    // Chiave Jira all'inizio del messaggio (es. BOOKKEEPER-123)
+    private static final Pattern KEY_PATTERN = Pattern.compile("^[A-Za-z][A-Za-z0-9_]*-\\d+");
+    // Nome di versione numerico, come quelli cercati dal filtro semantico (es. 4.2.0)
+    private static final Pattern VERSION_PATTERN = Pattern.compile("\\d+(\\.\\d+)+");
     private final List<GitCommitEntry> commits;
     private final List<Pair<JiraVersion, GitCommitEntry>> versions;
     private final Map<JiraIssue, GitCommitEntry> issues;
+    // Indici costruiti una volta sola sui commit
+    private final LocalDateTime[] dates;
+    private final Map<String, GitCommitEntry> keyIndex;
+    private final List<GitCommitEntry> releaseCandidates;
+    private final Map<String, GitCommitEntry> tagIndex;
 
     public JiraGitIntegration(List<GitCommitEntry> commits) {
-        this.commits = commits;
+        this(commits, Map.of());
+    }
+
+    // `tags`: nome del tag -> hash del commit
+    public JiraGitIntegration(List<GitCommitEntry> commits, Map<String, String> tags) {
+        // Ordine crescente per data, necessario per la ricerca binaria
+        this.commits = new ArrayList<>(commits);
+        this.commits.sort(Comparator.comparing(GitCommitEntry::commitDate));
         this.versions = new ArrayList<>();
         this.issues = new HashMap<>();
+        this.dates = this.commits.stream().map(GitCommitEntry::commitDate).toArray(LocalDateTime[]::new);
+        this.keyIndex = new HashMap<>();
+        this.releaseCandidates = new ArrayList<>();
+        for (GitCommitEntry commit : this.commits) {
+            Matcher matcher = KEY_PATTERN.matcher(commit.message());
+            if (matcher.lookingAt()) keyIndex.putIfAbsent(matcher.group(), commit);
+            // Solo questi messaggi possono superare il filtro semantico delle versioni
+            if (commit.message().contains("Tag") || commit.message().contains(" release"))
+                releaseCandidates.add(commit);
+        }
+        this.tagIndex = indexTags(tags);
+    }
+
+    private Map<String, GitCommitEntry> indexTags(Map<String, String> tags) {
+        Map<String, GitCommitEntry> byHash = new HashMap<>();
+        for (GitCommitEntry commit : commits) byHash.put(commit.hash(), commit);
+        Map<String, GitCommitEntry> index = new HashMap<>();
+        Map<String, GitCommitEntry> derived = new HashMap<>();
+        for (String tag : new TreeSet<>(tags.keySet())) {
+            GitCommitEntry commit = byHash.get(tags.get(tag));
+            if (commit == null) continue;
+            index.put(tag, commit);
+            // release-4.2.0, avro/1.7.0, v1.7.0 -> nome della versione, solo se e' un numero di versione
+            String name = tag.substring(Math.max(tag.lastIndexOf('-'), Math.max(tag.lastIndexOf('/'), tag.lastIndexOf('_'))) + 1);
+            if (name.startsWith("v")) name = name.substring(1);
+            if (VERSION_PATTERN.matcher(name).matches()) derived.putIfAbsent(name, commit);
+        }
+        // Un tag con esattamente il nome della versione vince su quelli da cui il nome e' solo ricavato
+        derived.forEach(index::putIfAbsent);
+        return index;
     }
 
     public void findRevisions(List<JiraVersion> versions)  {
@@ -50,9 +98,10 @@ public class JiraGitIntegration {
 
         GitCommitEntry candidate;
         try {
-            candidate = useSemanticFilter(version.name(), commits);
+            candidate = useSemanticFilter(version.name());
         } catch (NotFoundException e) {
-            candidate = useDateFilter(version.releaseDate(), commits);
+            candidate = tagIndex.get(version.name());
+            if (candidate == null) candidate = useDateFilter(version.releaseDate());
         }
         return candidate;
     }
@@ -60,36 +109,44 @@ public class JiraGitIntegration {
     private GitCommitEntry findRevisionOfIssue(JiraIssue issue) throws NotFoundException {
         GitCommitEntry candidate;
         try {
-            candidate = useSemanticKeyFilter(issue.getKey(), commits);
+            candidate = useSemanticKeyFilter(issue.getKey());
         } catch (Exception e) {
-            candidate = useDateFilter(issue.getResolution(), commits);
+            candidate = useDateFilter(issue.getResolution());
         }
         return candidate;
     }
-    private GitCommitEntry useSemanticFilter(String name, List<GitCommitEntry> commits) throws NotFoundException {
-        Pattern avroPattern = Pattern.compile("Tag.* %s(| release)".formatted(name));
-        List<GitCommitEntry> semanticFilter = commits.stream()
-                .filter(c -> avroPattern.matcher(c.message()).find()
-                        || c.message().contains("BookKeeper %s release".formatted(name)))
-                .toList();
-        if (semanticFilter.isEmpty()) throw new NotFoundException("Semantic filter failed for %s".formatted(name));
-        return semanticFilter.get(semanticFilter.size() - 1);
+    // Returns the last commit tagging the release (e.g. "Tag 1.7.0 release", "BookKeeper 4.2.0 release")
+    private GitCommitEntry useSemanticFilter(String name) throws NotFoundException {
+        String bookkeeperRelease = "BookKeeper %s release".formatted(name);
+        for (int i = releaseCandidates.size() - 1; i >= 0; i--) {
+            String message = releaseCandidates.get(i).message();
+            int tag = message.indexOf("Tag");
+            if ((tag >= 0 && message.indexOf(" " + name, tag + 3) >= 0) || message.contains(bookkeeperRelease))
+                return releaseCandidates.get(i);
+        }
+        throw new NotFoundException("Semantic filter failed for %s".formatted(name));
     }
 
     // Returns the first commit after the version release date (end of day)
-    private GitCommitEntry useDateFilter(LocalDate releaseDate, List<GitCommitEntry> commits) throws NotFoundException {
-        return commits.stream()
-                .filter(c -> !c.commitDate().isBefore(releaseDate.atTime(LocalTime.MAX)))
-                .findFirst()
-                .orElseThrow(() -> new NotFoundException("Date filter failed"));
+    private GitCommitEntry useDateFilter(LocalDate releaseDate) throws NotFoundException {
+        LocalDateTime target = releaseDate.atTime(LocalTime.MAX);
+        // Primo indice con data >= target
+        int low = 0;
+        int high = dates.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (dates[middle].isBefore(target)) low = middle + 1;
+            else high = middle;
+        }
+        if (low == dates.length) throw new NotFoundException("Date filter failed");
+        return commits.get(low);
     }
 
-    // Returns the first commits starting with `key`
-    private GitCommitEntry useSemanticKeyFilter(String key, List<GitCommitEntry> commits) throws NotFoundException {
-        return commits.stream()
-                .filter(c -> c.message().startsWith(key))
-                .findFirst()
-                .orElseThrow(() -> new NotFoundException("Semantic key filter failed for %s".formatted(key)));
+    // Returns the first commit whose message starts with `key`
+    private GitCommitEntry useSemanticKeyFilter(String key) throws NotFoundException {
+        GitCommitEntry commit = keyIndex.get(key);
+        if (commit == null) throw new NotFoundException("Semantic key filter failed for %s".formatted(key));
+        return commit;
     }
 
     public List<Pair<JiraVersion, GitCommitEntry>> versions() {
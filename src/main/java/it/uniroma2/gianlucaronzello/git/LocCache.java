@@ -0,0 +1,117 @@
+package it.uniroma2.gianlucaronzello.git;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+// Numero di righe per blob: un blob e' immutabile, quindi ogni contenuto distinto viene letto una volta sola
+final class LocCache {
+    private static final Logger logger = Logger.getLogger("LocCache");
+    private static final int RECORD_SIZE = Constants.OBJECT_ID_LENGTH + Integer.BYTES;
+    private final Map<ObjectId, Integer> lines;
+    private final List<ObjectId> pending;
+    private final Path file;
+
+    // `file` null: cache solo in memoria
+    LocCache(Path file) {
+        this.lines = new ConcurrentHashMap<>();
+        this.pending = new ArrayList<>();
+        this.file = file;
+        if (file != null && Files.exists(file)) load(file);
+    }
+
+    private void load(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+            long records = Files.size(file) / RECORD_SIZE;
+            for (long i = 0; i < records; i++) {
+                in.readFully(id);
+                lines.put(ObjectId.fromRaw(id), in.readInt());
+            }
+        } catch (IOException e) {
+            logger.info("Could not read loc cache: " + e);
+        }
+    }
+
+    int linesOf(ObjectReader reader, ObjectId blobId) throws IOException {
+        Integer cached = lines.get(blobId);
+        if (cached != null) return cached;
+        int count = countLines(reader.open(blobId, Constants.OBJ_BLOB));
+        ObjectId key = blobId.copy();
+        if (lines.putIfAbsent(key, count) == null && file != null) {
+            synchronized (pending) {
+                pending.add(key);
+            }
+        }
+        return count;
+    }
+
+    // Accoda su disco le voci calcolate dall'ultimo flush
+    void flush() {
+        if (file == null) return;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true)))) {
+                byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+                for (ObjectId key : pending) {
+                    key.copyRawTo(id, 0);
+                    out.write(id);
+                    out.writeInt(lines.get(key));
+                }
+                pending.clear();
+            } catch (IOException e) {
+                logger.info("Could not write loc cache: " + e);
+            }
+        }
+    }
+
+    // Stesso risultato di new String(bytes).split("\n").length, senza decodificare il contenuto
+    static int countLines(ObjectLoader loader) throws IOException {
+        Counter counter = new Counter();
+        if (!loader.isLarge()) {
+            byte[] bytes = loader.getCachedBytes();
+            counter.update(bytes, bytes.length);
+        } else {
+            try (ObjectStream stream = loader.openStream()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = stream.read(buffer)) != -1) counter.update(buffer, read);
+            }
+        }
+        return counter.lines();
+    }
+
+    private static final class Counter {
+        private long size;
+        private int newlines;
+        private int trailing;
+
+        void update(byte[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    newlines++;
+                    trailing++;
+                } else trailing = 0;
+            }
+            size += length;
+        }
+
+        int lines() {
+            // split scarta le righe vuote in coda
+            if (size == 0) return 1;
+            if (size == trailing) return 0;
+            return newlines - trailing + 1;
+        }
+    }
+}
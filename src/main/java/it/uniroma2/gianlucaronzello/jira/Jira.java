@@ -1,26 +1,44 @@
 package it.uniroma2.gianlucaronzello.jira;
 
 import it.uniroma2.gianlucaronzello.Pair;
+import it.uniroma2.gianlucaronzello.jira.http.CachedFetcher;
+import it.uniroma2.gianlucaronzello.jira.http.HttpFetcher;
 import it.uniroma2.gianlucaronzello.jira.model.JiraIssue;
 import it.uniroma2.gianlucaronzello.jira.model.JiraVersion;
+import it.uniroma2.gianlucaronzello.utils.Settings;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URI;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.logging.Logger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Jira {
+    // Issue richiesti per pagina della ricerca
+    private static final int PAGE_SIZE = 1000;
     private final List<JiraVersion> versions;
     private final List<JiraIssue> issues;
-    private static final Logger logger = Logger.getLogger("Jira");
+    private final HttpFetcher fetcher;
+    private final String baseUrl;
 
-    public Jira(String project, String params)   {
+    public Jira(String project, String params) throws JiraException {
+        this(project, params, CachedFetcher.fromSettings(), Settings.jiraUrl());
+    }
+
+    // `baseUrl` permette di usare un server diverso da issues.apache.org (es. uno stub locale)
+    public Jira(String project, String params, HttpFetcher fetcher, String baseUrl) throws JiraException {
+        this.fetcher = fetcher;
+        this.baseUrl = baseUrl;
         versions = loadVersions(project);
         JiraVersion first = versions.get(0);
         JiraVersion last = versions.get(versions.size() - 1);
@@ -28,9 +46,9 @@ public class Jira {
         classifyIssues(versions, issues);
 
     }
-    public List<JiraVersion> loadVersions(String project)   {
+    public List<JiraVersion> loadVersions(String project) throws JiraException {
         List<JiraVersion> versionList = new ArrayList<>();
-        String url = "https://issues.apache.org/jira/rest/api/2/project/%s/versions".formatted(project.toUpperCase());
+        String url = "%s/rest/api/2/project/%s/versions".formatted(baseUrl, project.toUpperCase());
         String json = getJsonFromUrl(url);
         JSONArray jsonVersions = new JSONArray(json);
         for (int i = 0; i < jsonVersions.length(); i++) {
@@ -50,74 +68,130 @@ public class Jira {
         return versionList.subList(0, numberOfVersions);
     }
 
-    public String getJsonFromUrl(String url)   {
-        byte[] bytes = new byte[20];
-        try (InputStream stream = URI.create(url).toURL().openStream()) {
-             bytes = stream.readAllBytes();
-
-        } catch (MalformedURLException e) {
-             logger.info("Incorrect url: %s".formatted(url)+ e);
+    public String getJsonFromUrl(String url) throws JiraException {
+        try (InputStream stream = fetcher.open(url)) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new JiraException("Incorrect url: %s".formatted(url), e);
         } catch (IOException e) {
-             logger.info("Could not load page: %s".formatted(url)+ e);
+            throw new JiraException("Could not load page: %s".formatted(url), e);
         }
-        return new String(bytes, StandardCharsets.UTF_8);
-    }
-    public List<JiraIssue> loadIssues(String project, String params,  LocalDate firstVersion, LocalDate lastVersion)   {
-        List<JiraIssue> issueList = new ArrayList<>();
-        int total;
-        int totalDecrement = 0;
-        int startAt = 0;
-        do {
-            String url = "https://issues.apache.org/jira/rest/api/2/search" + "?jql=project=" + project +
-                    " AND issueType=Bug AND(status=closed OR status=resolved)AND resolution=fixed" +
-                    " AND resolved>=%s AND resolved<=%s".formatted(firstVersion.toString(), lastVersion.toString()) +
-                    " %s".formatted(params) + "&fields=" + String.join(",", JiraIssue.getFields()) +
-                    "&startAt=" + startAt +
-                    "&maxResults=1000";
-            String correctedUrl = url.replace(" ", "%20").replace(">=", "%3E%3D").replace("<=", "%3C%3D");
-            String json = getJsonFromUrl(correctedUrl);
-            JSONObject result = new JSONObject(json);
-            total = result.getInt("total");
-            JSONArray jsonIssues = result.getJSONArray("issues");
-            for (int i = 0; i < jsonIssues.length(); i++) {
-                JSONObject jsonIssue = jsonIssues.getJSONObject(i);
-                JSONObject fields = jsonIssue.getJSONObject("fields");
-                // issue da evitare
-                if (!jsonIssue.has(JiraIssue.KEY_FIELD) || !fields.has(JiraIssue.RESOLUTION_DATE_FIELD) || !fields.has(JiraIssue.CREATED_FIELD)) {
-                    totalDecrement += 1;
-                    continue;
-                }
-                String key = jsonIssue.getString(JiraIssue.KEY_FIELD);
-                String resolutionString = fields.getString(JiraIssue.RESOLUTION_DATE_FIELD);
-                String createdString = fields.getString(JiraIssue.CREATED_FIELD);
-                LocalDate resolution = LocalDate.parse(resolutionString.substring(0, 10));
-                LocalDate created = LocalDate.parse(createdString.substring(0, 10));
+    }
+    private record IssuePage(int total, int maxResults, List<JiraIssue> issues) {
+    }
 
-                List<LocalDate> affectedVersions = new ArrayList<>();
-                for (int j = 0; j < fields.getJSONArray(JiraIssue.VERSIONS_FIELD).length(); j++) {
-                    JSONObject o = fields.getJSONArray(JiraIssue.VERSIONS_FIELD).getJSONObject(j);
-                    if (!o.has(JiraVersion.RELEASE_DATE_FIELD)) continue;
-                    String dateString = o.getString(JiraVersion.RELEASE_DATE_FIELD);
-                    LocalDate date = LocalDate.parse(dateString);
-                    affectedVersions.add(date);
+    // La prima pagina fornisce `total`: le successive sono indipendenti e vengono scaricate in parallelo
+    public List<JiraIssue> loadIssues(String project, String params,  LocalDate firstVersion, LocalDate lastVersion) throws JiraException {
+        IssuePage first = loadIssuePage(issuesUrl(project, params, firstVersion, lastVersion, 0, PAGE_SIZE));
+        List<JiraIssue> issueList = new ArrayList<>(first.issues());
+        // Il server puo' ridurre maxResults: le pagine successive si chiedono e si contano con lo stesso valore.
+        // Un valore mancante o fuori intervallo lascia la dimensione richiesta
+        int pageSize = first.maxResults() > 0 && first.maxResults() <= PAGE_SIZE ? first.maxResults() : PAGE_SIZE;
+        int pages = (first.total() + pageSize - 1) / pageSize;
+        if (pages > 1) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(Settings.jiraThreads(), pages - 1));
+            try {
+                List<Future<IssuePage>> futures = new ArrayList<>();
+                for (int page = 1; page < pages; page++) {
+                    String url = issuesUrl(project, params, firstVersion, lastVersion, page * pageSize, pageSize);
+                    futures.add(executor.submit(() -> loadIssuePage(url)));
                 }
-                affectedVersions.sort(Comparator.naturalOrder());
-
-                JiraIssue issue = new JiraIssue(key, resolution, created, affectedVersions);
-                issueList.add(issue);
+                // Le pagine vengono unite nell'ordine della ricerca, indipendentemente dall'ordine di arrivo
+                for (Future<IssuePage> future : futures) issueList.addAll(future.get().issues());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof JiraException jiraException) throw jiraException;
+                throw new JiraException("Could not load issues of %s".formatted(project), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JiraException("Interrupted while loading issues of %s".formatted(project), e);
+            } finally {
+                executor.shutdownNow();
             }
-            startAt += result.getInt("maxResults");
-        } while (total - totalDecrement != issueList.size());
+        }
         Collections.reverse(issueList);
         return issueList;
     }
+    private String issuesUrl(String project, String params, LocalDate firstVersion, LocalDate lastVersion, int startAt, int maxResults) {
+        String url = baseUrl + "/rest/api/2/search" + "?jql=project=" + project +
+                " AND issueType=Bug AND(status=closed OR status=resolved)AND resolution=fixed" +
+                " AND resolved>=%s AND resolved<=%s".formatted(firstVersion.toString(), lastVersion.toString()) +
+                " %s".formatted(params) + "&fields=" + String.join(",", JiraIssue.getFields()) +
+                "&startAt=" + startAt +
+                "&maxResults=" + maxResults;
+        return url.replace(" ", "%20").replace(">=", "%3E%3D").replace("<=", "%3C%3D");
+    }
+    // La pagina viene letta in streaming dalla risposta: si costruisce un JSONObject per un issue alla volta
+    // e i campi di primo livello non usati vengono saltati
+    private IssuePage loadIssuePage(String url) throws JiraException {
+        try (Reader reader = new InputStreamReader(fetcher.open(url), StandardCharsets.UTF_8)) {
+            JSONTokener tokener = new JSONTokener(reader);
+            int total = 0;
+            int maxResults = 0;
+            List<JiraIssue> issueList = new ArrayList<>();
+            if (tokener.nextClean() != '{') throw tokener.syntaxError("A JSONObject text must begin with '{'");
+            char separator = tokener.nextClean();
+            if (separator != '}') tokener.back();
+            while (separator != '}') {
+                String key = tokener.nextValue().toString();
+                if (tokener.nextClean() != ':') throw tokener.syntaxError("Expected a ':' after a key");
+                switch (key) {
+                    case "total" -> total = ((Number) tokener.nextValue()).intValue();
+                    case "maxResults" -> maxResults = ((Number) tokener.nextValue()).intValue();
+                    case "issues" -> readIssues(tokener, issueList);
+                    default -> tokener.nextValue();
+                }
+                separator = tokener.nextClean();
+                if (separator != ',' && separator != '}') throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+            return new IssuePage(total, maxResults, issueList);
+        } catch (JSONException | ClassCastException e) {
+            throw new JiraException("Malformed search page: %s".formatted(url), e);
+        } catch (IOException e) {
+            throw new JiraException("Could not load page: %s".formatted(url), e);
+        }
+    }
+    private void readIssues(JSONTokener tokener, List<JiraIssue> issueList) {
+        if (tokener.nextClean() != '[') throw tokener.syntaxError("A JSONArray text must start with '['");
+        char separator = tokener.nextClean();
+        if (separator != ']') tokener.back();
+        while (separator != ']') {
+            JiraIssue issue = parseIssue((JSONObject) tokener.nextValue());
+            if (issue != null) issueList.add(issue);
+            separator = tokener.nextClean();
+            if (separator != ',' && separator != ']') throw tokener.syntaxError("Expected a ',' or ']'");
+        }
+    }
+    private JiraIssue parseIssue(JSONObject jsonIssue) {
+        JSONObject fields = jsonIssue.getJSONObject("fields");
+        // issue da evitare
+        if (!jsonIssue.has(JiraIssue.KEY_FIELD) || !fields.has(JiraIssue.RESOLUTION_DATE_FIELD) || !fields.has(JiraIssue.CREATED_FIELD))
+            return null;
+        String key = jsonIssue.getString(JiraIssue.KEY_FIELD);
+        String resolutionString = fields.getString(JiraIssue.RESOLUTION_DATE_FIELD);
+        String createdString = fields.getString(JiraIssue.CREATED_FIELD);
+        LocalDate resolution = LocalDate.parse(resolutionString.substring(0, 10));
+        LocalDate created = LocalDate.parse(createdString.substring(0, 10));
+
+        List<LocalDate> affectedVersions = new ArrayList<>();
+        JSONArray jsonVersions = fields.getJSONArray(JiraIssue.VERSIONS_FIELD);
+        for (int j = 0; j < jsonVersions.length(); j++) {
+            JSONObject o = jsonVersions.getJSONObject(j);
+            if (!o.has(JiraVersion.RELEASE_DATE_FIELD)) continue;
+            String dateString = o.getString(JiraVersion.RELEASE_DATE_FIELD);
+            LocalDate date = LocalDate.parse(dateString);
+            affectedVersions.add(date);
+        }
+        affectedVersions.sort(Comparator.naturalOrder());
+        return new JiraIssue(key, resolution, created, affectedVersions);
+    }
     public void classifyIssues(List<JiraVersion> versions, List<JiraIssue> issues) {
+        VersionTimeline timeline = new VersionTimeline(versions);
+        LocalDate firstReleaseDate = versions.get(0).releaseDate();
         for (JiraIssue issue : issues) {
-            LocalDate firstReleaseDate = versions.get(0).releaseDate();
             // si saltano gli issue risolti prima della prima release di Jira
             if (issue.getCreated().isBefore(firstReleaseDate) && issue.getResolution().isBefore(firstReleaseDate))
                 continue;
-            List<Pair<JiraVersion, Integer>> foundVersions = getVersions(issue, versions);
+            List<Pair<JiraVersion, Integer>> foundVersions = getVersions(issue, versions, timeline);
             Pair<JiraVersion, Integer> injected = foundVersions.get(0);
             Pair<JiraVersion, Integer> opening = foundVersions.get(1);
             Pair<JiraVersion, Integer> fix = foundVersions.get(2);
@@ -141,51 +215,53 @@ public class Jira {
 
         }
     }
-    private List<Pair<JiraVersion, Integer>> getVersions(JiraIssue issue, List<JiraVersion> versions) {
-        Pair<JiraVersion, Integer> injected = null;
-        Pair<JiraVersion, Integer> opening = null;
-        Pair<JiraVersion, Integer> fix = null;
-
-        for (int i = 0; i < versions.size(); i++) {
-            JiraVersion version = versions.get(i);
-            // Se ci sono AV, l'IV è la prima
-            if (injected == null && !issue.getAffectedVersionsDates().isEmpty() && issue.getAffectedVersionsDates().get(0).isEqual(version.releaseDate()))
-                injected = new Pair<>(version, i);
-            // OV è la prima dopo la crazione del ticket
-            if (opening == null && version.releaseDate().isAfter(issue.getCreated())) opening = new Pair<>(version, i);
-            // FV la prima dopo la risoluzione del ticket
-            if (fix == null && !version.releaseDate().isBefore(issue.getResolution()))
-                fix = new Pair<>(version, i);
-            if (injected != null && opening != null && fix != null) break;
-        }
-        return Arrays.asList(injected, opening, fix);
+    private List<Pair<JiraVersion, Integer>> getVersions(JiraIssue issue, List<JiraVersion> versions, VersionTimeline timeline) {
+        // Se ci sono AV, l'IV è la prima
+        int injected = issue.getAffectedVersionsDates().isEmpty() ? -1 : timeline.firstOn(issue.getAffectedVersionsDates().get(0));
+        // OV è la prima dopo la crazione del ticket
+        int opening = timeline.firstAfter(issue.getCreated());
+        // FV la prima dopo la risoluzione del ticket
+        int fix = timeline.firstOnOrAfter(issue.getResolution());
+        return Arrays.asList(versionAt(versions, injected), versionAt(versions, opening), versionAt(versions, fix));
+    }
+    private static Pair<JiraVersion, Integer> versionAt(List<JiraVersion> versions, int index) {
+        return index == -1 ? null : new Pair<>(versions.get(index), index);
     }
 
 
     public double calculateProportionColdStart() {
         // Si considerano gli issue che hanno già IV
-        List<JiraIssue> filter = issues.stream().filter(i -> i.getIvIndex() != -1).toList();
-        List<Double> proportions = filter.stream().map(JiraIssue::calculateProportion).toList();
         double sum = 0f;
-        for (double value : proportions) sum += value;
-        return sum / proportions.size();
+        int count = 0;
+        for (JiraIssue issue : issues) {
+            if (issue.getIvIndex() == -1) continue;
+            sum += issue.calculateProportion();
+            count++;
+        }
+        return sum / count;
     }
 
     public void applyProportionIncrement(double proportionColdStart) {
         double lastSum = 0f;
         int totalIssues = 0;
         for (JiraVersion version : versions) {
-            List<JiraIssue> valid = version.fixed().stream().filter(i -> i.getIvIndex() != -1).toList();
+            // Si separano in una sola passata i fixed con IV da quelli senza
+            double currentSum = 0f;
+            int valid = 0;
+            List<JiraIssue> invalid = new ArrayList<>();
+            for (JiraIssue issue : version.fixed()) {
+                if (issue.getIvIndex() == -1) {
+                    invalid.add(issue);
+                } else {
+                    currentSum += issue.calculateProportion();
+                    valid++;
+                }
+            }
             double proportion = proportionColdStart; // si usa cold start se si hanno meno di 5 ticket
-            if (valid.size() >= 5) {
-                List<Double> proportions = valid.stream().map(JiraIssue::calculateProportion).toList();
-                double currentSum = proportions.stream().reduce(0.0, Double::sum);
-                proportion = (lastSum + currentSum) / (totalIssues + valid.size());
+            if (valid >= 5) {
+                proportion = (lastSum + currentSum) / (totalIssues + valid);
                 lastSum += currentSum;
             }
-            // Prendi i fixed in questa versione che non hanno IV
-            List<JiraIssue> invalid = new ArrayList<>(version.fixed());
-            invalid.removeAll(valid);
             for (JiraIssue invalidIssue : invalid) {
                 int iv = (int) (invalidIssue.getFvIndex() - invalidIssue.getFvMinusOv() * proportion);
                 invalidIssue.setIvIndex(iv);
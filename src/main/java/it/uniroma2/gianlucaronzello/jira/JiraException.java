@@ -0,0 +1,16 @@
+package it.uniroma2.gianlucaronzello.jira;
+
+import java.io.Serial;
+
+public class JiraException extends Exception {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public JiraException(String reason) {
+        super("[JIRA] %s".formatted(reason));
+    }
+
+    public JiraException(String reason, Throwable cause) {
+        super("[JIRA] %s".formatted(reason), cause);
+    }
+}
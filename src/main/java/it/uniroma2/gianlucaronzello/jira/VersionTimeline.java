@@ -0,0 +1,48 @@
+package it.uniroma2.gianlucaronzello.jira;
+
+import it.uniroma2.gianlucaronzello.jira.model.JiraVersion;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// Date di rilascio delle versioni (gia' ordinate): IV, OV e FV si trovano con una ricerca binaria
+final class VersionTimeline {
+    private final long[] days;
+
+    VersionTimeline(List<JiraVersion> versions) {
+        this.days = new long[versions.size()];
+        for (int i = 0; i < days.length; i++) days[i] = versions.get(i).releaseDate().toEpochDay();
+    }
+
+    // Indice della prima versione rilasciata esattamente in `date`, -1 se non esiste
+    int firstOn(LocalDate date) {
+        int index = lowerBound(date.toEpochDay());
+        return index < days.length && days[index] == date.toEpochDay() ? index : -1;
+    }
+
+    // Indice della prima versione rilasciata dopo `date`, -1 se non esiste
+    int firstAfter(LocalDate date) {
+        return orMissing(lowerBound(date.toEpochDay() + 1));
+    }
+
+    // Indice della prima versione rilasciata in `date` o dopo, -1 se non esiste
+    int firstOnOrAfter(LocalDate date) {
+        return orMissing(lowerBound(date.toEpochDay()));
+    }
+
+    private int orMissing(int index) {
+        return index < days.length ? index : -1;
+    }
+
+    // Primo indice con data >= `day` (con versioni rilasciate lo stesso giorno si prende la prima)
+    private int lowerBound(long day) {
+        int low = 0;
+        int high = days.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days[middle] < day) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+}
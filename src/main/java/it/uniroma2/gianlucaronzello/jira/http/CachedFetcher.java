@@ -0,0 +1,147 @@
+package it.uniroma2.gianlucaronzello.jira.http;
+
+import it.uniroma2.gianlucaronzello.utils.Hashing;
+import it.uniroma2.gianlucaronzello.utils.Settings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+// Cache su disco delle risposte HTTP. I corpi sono indirizzati per contenuto (objects/<sha256 del corpo>),
+// mentre urls/<sha256 dell'url>.properties associa ogni url al suo corpo, con ETag, Last-Modified e data di download.
+public class CachedFetcher implements HttpFetcher {
+    public enum Mode {
+        // Nessuna cache
+        OFF,
+        // Risposte valide per il TTL, poi rivalidate con una richiesta condizionale
+        CACHE,
+        // Scarica sempre e registra
+        RECORD,
+        // Solo risposte registrate, nessun accesso alla rete
+        REPLAY
+    }
+
+    private static final Logger logger = Logger.getLogger("JiraCache");
+    private static final String URL = "url";
+    private static final String OBJECT = "object";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String FETCHED = "fetched";
+    private final HttpFetcher network;
+    private final Path objects;
+    private final Path urls;
+    private final Mode mode;
+    private final Duration ttl;
+
+    public CachedFetcher(HttpFetcher network, Path folder, Mode mode, Duration ttl) {
+        this.network = network;
+        this.objects = folder.resolve("objects");
+        this.urls = folder.resolve("urls");
+        this.mode = mode;
+        this.ttl = ttl;
+    }
+
+    public static HttpFetcher fromSettings() {
+        return new CachedFetcher(new HttpClientFetcher(), Settings.jiraCacheFolder(), Settings.jiraCacheMode(), Settings.jiraCacheTtl());
+    }
+
+    @Override
+    public HttpResponse fetch(String url, String etag, String lastModified) throws IOException {
+        if (mode == Mode.OFF) return network.fetch(url, etag, lastModified);
+        Properties entry = readEntry(url);
+        if (mode == Mode.REPLAY) {
+            if (entry == null) throw new IOException("No recorded response for %s".formatted(url));
+            return cached(entry);
+        }
+        boolean revalidate = mode == Mode.CACHE && entry != null;
+        if (revalidate && isFresh(entry)) return cached(entry);
+        try {
+            HttpResponse response = revalidate
+                    ? network.fetch(url, entry.getProperty(ETAG), entry.getProperty(LAST_MODIFIED))
+                    : network.fetch(url, null, null);
+            if (response.notModified() && entry != null) {
+                entry.setProperty(FETCHED, String.valueOf(Instant.now().toEpochMilli()));
+                writeEntry(url, entry);
+                return cached(entry);
+            }
+            return cached(store(url, response));
+        } catch (IOException e) {
+            if (!revalidate) throw e;
+            logger.info("Could not revalidate %s, using cached response: %s".formatted(url, e));
+            return cached(entry);
+        }
+    }
+
+    private boolean isFresh(Properties entry) {
+        Instant fetched = Instant.ofEpochMilli(Long.parseLong(entry.getProperty(FETCHED, "0")));
+        return fetched.plus(ttl).isAfter(Instant.now());
+    }
+
+    private HttpResponse cached(Properties entry) throws IOException {
+        InputStream body = Files.newInputStream(objects.resolve(entry.getProperty(OBJECT)));
+        return new HttpResponse(200, body, entry.getProperty(ETAG), entry.getProperty(LAST_MODIFIED));
+    }
+
+    // Il corpo viene scritto su disco mentre se ne calcola l'hash, senza tenerlo in memoria
+    private Properties store(String url, HttpResponse response) throws IOException {
+        Files.createDirectories(objects);
+        Path temporary = Files.createTempFile(objects, "download", ".tmp");
+        try {
+            MessageDigest digest = Hashing.sha256();
+            try (InputStream body = new DigestInputStream(response.body(), digest);
+                 OutputStream out = Files.newOutputStream(temporary)) {
+                body.transferTo(out);
+            }
+            String object = Hashing.toHex(digest);
+            Path target = objects.resolve(object);
+            if (!Files.exists(target)) Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            Properties entry = new Properties();
+            entry.setProperty(URL, url);
+            entry.setProperty(OBJECT, object);
+            if (response.etag() != null) entry.setProperty(ETAG, response.etag());
+            if (response.lastModified() != null) entry.setProperty(LAST_MODIFIED, response.lastModified());
+            entry.setProperty(FETCHED, String.valueOf(Instant.now().toEpochMilli()));
+            writeEntry(url, entry);
+            return entry;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private Path entryPath(String url) {
+        return urls.resolve(Hashing.sha256(url) + ".properties");
+    }
+
+    private Properties readEntry(String url) throws IOException {
+        Path path = entryPath(url);
+        if (!Files.exists(path)) return null;
+        Properties entry = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)) {
+            entry.load(reader);
+        }
+        // Voce incompleta o corpo rimosso: come se non fosse in cache
+        String object = entry.getProperty(OBJECT);
+        if (object == null || !Files.exists(objects.resolve(object))) return null;
+        return entry;
+    }
+
+    private void writeEntry(String url, Properties entry) throws IOException {
+        Files.createDirectories(urls);
+        Path temporary = Files.createTempFile(urls, "entry", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary)) {
+            entry.store(writer, null);
+        }
+        Files.move(temporary, entryPath(url), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,47 @@
+package it.uniroma2.gianlucaronzello.jira.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+
+// Un solo HttpClient condiviso: le connessioni vengono riusate anche tra richieste concorrenti
+public class HttpClientFetcher implements HttpFetcher {
+    private static final int OK = 200;
+    private final HttpClient client;
+
+    public HttpClientFetcher() {
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    @Override
+    public HttpResponse fetch(String url, String etag, String lastModified) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).GET();
+        if (etag != null) request.header("If-None-Match", etag);
+        if (lastModified != null) request.header("If-Modified-Since", lastModified);
+        java.net.http.HttpResponse<InputStream> response;
+        try {
+            response = client.send(request.build(), java.net.http.HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading %s".formatted(url), e);
+        }
+        int status = response.statusCode();
+        if (status == HttpResponse.NOT_MODIFIED) {
+            response.body().close();
+            return new HttpResponse(status, null, etag, lastModified);
+        }
+        if (status != OK) {
+            response.body().close();
+            throw new IOException("HTTP %d for %s".formatted(status, url));
+        }
+        return new HttpResponse(status, response.body(),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null));
+    }
+}
@@ -0,0 +1,13 @@
+package it.uniroma2.gianlucaronzello.jira.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface HttpFetcher {
+    // GET condizionale: `etag` e `lastModified` (se non null) vengono inviati come If-None-Match / If-Modified-Since
+    HttpResponse fetch(String url, String etag, String lastModified) throws IOException;
+
+    default InputStream open(String url) throws IOException {
+        return fetch(url, null, null).body();
+    }
+}
@@ -0,0 +1,12 @@
+package it.uniroma2.gianlucaronzello.jira.http;
+
+import java.io.InputStream;
+
+// `body` e' null se la richiesta condizionale ha risposto 304 (copia in cache ancora valida)
+public record HttpResponse(int status, InputStream body, String etag, String lastModified) {
+    public static final int NOT_MODIFIED = 304;
+
+    public boolean notModified() {
+        return status == NOT_MODIFIED;
+    }
+}
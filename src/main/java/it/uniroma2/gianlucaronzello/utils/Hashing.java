@@ -0,0 +1,56 @@
+package it.uniroma2.gianlucaronzello.utils;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public class Hashing {
+    private Hashing() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 e' sempre disponibile nella JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static String sha256(String text) {
+        MessageDigest digest = sha256();
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return toHex(digest);
+    }
+
+    // sha256 di attributi, indice della classe, valori e pesi delle istanze
+    public static String contentHash(Instances instances) {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES);
+        for (int i = 0; i < instances.numAttributes(); i++) {
+            Attribute attribute = instances.attribute(i);
+            digest.update("%s:%d;".formatted(attribute.name(), attribute.type()).getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update("class:%d;".formatted(instances.classIndex()).getBytes(StandardCharsets.UTF_8));
+        for (Instance instance : instances) {
+            for (double value : instance.toDoubleArray()) {
+                buffer.clear();
+                digest.update(buffer.putDouble(value).array());
+            }
+            buffer.clear();
+            digest.update(buffer.putDouble(instance.weight()).array());
+        }
+        return toHex(digest);
+    }
+}
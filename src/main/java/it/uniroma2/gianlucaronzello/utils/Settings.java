@@ -0,0 +1,107 @@
+package it.uniroma2.gianlucaronzello.utils;
+
+import it.uniroma2.gianlucaronzello.jira.http.CachedFetcher;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+// Parametri di esecuzione, sovrascrivibili con -D<nome>=<valore>
+public class Settings {
+    private Settings() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    // Salva su disco (nella cartella della cache git) il numero di righe dei blob gia' letti
+    public static boolean locCacheOnDisk() {
+        return Boolean.parseBoolean(System.getProperty("ispw2.loc.cache", "true"));
+    }
+
+    // Indice dei commit e righe dei blob di un progetto: dataset/git-cache/<progetto>, oppure la cartella .git
+    // del repository con ispw2.git.cache.repo=true
+    public static Path gitCacheFolder(String project) {
+        return Paths.get(System.getProperty("ispw2.git.cache.dir", Paths.get("dataset", "git-cache").toString())).resolve(project);
+    }
+
+    public static boolean gitCacheInRepository() {
+        return Boolean.parseBoolean(System.getProperty("ispw2.git.cache.repo", "false"));
+    }
+
+    // Thread usati per calcolare le metriche delle release
+    public static int metricThreads() {
+        return Integer.getInteger("ispw2.metric.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    // Modalita' della cache delle risposte Jira: off, cache, record, replay
+    public static CachedFetcher.Mode jiraCacheMode() {
+        return CachedFetcher.Mode.valueOf(System.getProperty("ispw2.jira.cache", "cache").toUpperCase());
+    }
+
+    public static Path jiraCacheFolder() {
+        return Paths.get(System.getProperty("ispw2.jira.cache.dir", Paths.get("dataset", "jira-cache").toString()));
+    }
+
+    // Dopo il TTL (in secondi) la risposta in cache viene rivalidata
+    public static Duration jiraCacheTtl() {
+        return Duration.ofSeconds(Long.getLong("ispw2.jira.cache.ttl", Duration.ofDays(1).toSeconds()));
+    }
+
+    public static String jiraUrl() {
+        return System.getProperty("ispw2.jira.url", "https://issues.apache.org/jira");
+    }
+
+    // Pagine della ricerca Jira scaricate in parallelo
+    public static int jiraThreads() {
+        return Integer.getInteger("ispw2.jira.threads", 8);
+    }
+
+    // Proporzioni cold start salvate su disco: con false vengono sempre ricalcolate
+    public static boolean coldStartsCache() {
+        return Boolean.parseBoolean(System.getProperty("ispw2.coldstarts.cache", "true"));
+    }
+
+    // Dopo il TTL (in secondi) la proporzione salvata viene ricalcolata
+    public static Duration coldStartsTtl() {
+        return Duration.ofSeconds(Long.getLong("ispw2.coldstarts.ttl", Duration.ofDays(1).toSeconds()));
+    }
+
+    // Le analisi usano le istanze costruite dal dataset in memoria invece di rileggere CSV e arff
+    public static boolean inMemoryAnalysis() {
+        return Boolean.parseBoolean(System.getProperty("ispw2.analysis.memory", "true"));
+    }
+
+    // Scrive su disco CSV e arff del dataset (sempre necessario se le analisi leggono i file)
+    public static boolean exportDataset() {
+        return !inMemoryAnalysis() || Boolean.parseBoolean(System.getProperty("ispw2.dataset.export", "true"));
+    }
+
+    // Istanze lette dagli arff: cartella della forma serializzata e numero massimo tenuto in memoria
+    public static Path instancesCacheFolder() {
+        return Paths.get(System.getProperty("ispw2.instances.cache.dir", Paths.get("dataset", "instances-cache").toString()));
+    }
+
+    public static int instancesCacheSize() {
+        return Integer.getInteger("ispw2.instances.cache.size", 16);
+    }
+
+    // Attributi selezionati da BestFirst per ogni training set
+    public static Path featureSelectionCacheFolder() {
+        return Paths.get(System.getProperty("ispw2.selection.cache.dir", Paths.get("dataset", "selection-cache").toString()));
+    }
+
+    // Thread massimi per la valutazione dei classificatori (limitati anche dalla memoria disponibile)
+    public static int analysisThreads() {
+        return Integer.getInteger("ispw2.analysis.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    // Thread usati da RandomForest per costruire gli alberi, presi dai core della valutazione
+    public static int forestExecutionSlots() {
+        return Integer.getInteger("ispw2.forest.slots", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    // NaiveBayes e IBk senza feature selection e sampling vengono aggiornati release dopo release invece di
+    // essere riaddestrati (NaiveBayesUpdateable stima la precisione degli attributi sulla prima release)
+    public static boolean incrementalTraining() {
+        return Boolean.parseBoolean(System.getProperty("ispw2.analysis.incremental", "false"));
+    }
+}
@@ -0,0 +1,150 @@
+package it.uniroma2.gianlucaronzello.jira;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.uniroma2.gianlucaronzello.jira.http.HttpClientFetcher;
+import it.uniroma2.gianlucaronzello.jira.model.JiraIssue;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Jira contro uno stub locale servito da HttpServer su una porta libera, attraverso il vero HttpClientFetcher
+class JiraTest {
+    private static final int TOTAL = 7;
+    private static final Pattern START_AT = Pattern.compile("startAt=(\\d+)");
+    private static final Pattern MAX_RESULTS = Pattern.compile("maxResults=(\\d+)");
+    private HttpServer server;
+    private String baseUrl;
+    // Pagine della ricerca: dimensione usata dallo stub e maxResults dichiarato nella risposta (null = assente)
+    private volatile int pageSize;
+    private volatile Integer declaredMaxResults;
+    private volatile int searchStatus;
+    private final Queue<String> searches = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        pageSize = 3;
+        declaredMaxResults = 3;
+        searchStatus = 200;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/rest/api/2/project/PROJ/versions", exchange -> respond(exchange, 200, versions()));
+        server.createContext("/rest/api/2/search", this::search);
+        server.start();
+        baseUrl = "http://%s:%d".formatted(server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        searches.add(query);
+        if (searchStatus != 200) {
+            respond(exchange, searchStatus, "{}");
+            return;
+        }
+        int startAt = parameter(START_AT, query);
+        JSONArray issues = new JSONArray();
+        for (int i = startAt; i < Math.min(startAt + pageSize, TOTAL); i++) {
+            JSONObject fields = new JSONObject()
+                    .put("created", "2020-02-01T10:00:00.000+0000")
+                    .put("resolutiondate", "2020-05-01T10:00:00.000+0000")
+                    .put("versions", new JSONArray())
+                    .put("fixVersions", new JSONArray());
+            issues.put(new JSONObject().put("key", key(i)).put("fields", fields));
+        }
+        JSONObject page = new JSONObject().put("startAt", startAt).put("total", TOTAL).put("issues", issues);
+        if (declaredMaxResults != null) page.put("maxResults", declaredMaxResults);
+        respond(exchange, 200, page.toString());
+    }
+
+    private static int parameter(Pattern pattern, String query) {
+        Matcher matcher = pattern.matcher(query);
+        if (!matcher.find()) throw new IllegalArgumentException("Missing %s in %s".formatted(pattern, query));
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String versions() {
+        JSONArray versions = new JSONArray();
+        String[] dates = {"2020-01-01", "2020-06-01", "2021-01-01", "2021-06-01"};
+        for (int i = 0; i < dates.length; i++)
+            versions.put(new JSONObject().put("name", "1.%d".formatted(i)).put("released", true).put("releaseDate", dates[i]));
+        return versions.toString();
+    }
+
+    private static String key(int index) {
+        return "PROJ-%d".formatted(index + 1);
+    }
+
+    private List<JiraIssue> loadIssues() throws JiraException {
+        Jira jira = new Jira("proj", "", new HttpClientFetcher(), baseUrl);
+        searches.clear();
+        return jira.loadIssues("proj", "", LocalDate.parse("2020-01-01"), LocalDate.parse("2020-06-01"));
+    }
+
+    // Tutti gli issue, in ordine inverso rispetto alla ricerca
+    private static List<String> expectedKeys() {
+        List<String> expected = new ArrayList<>();
+        for (int i = TOTAL - 1; i >= 0; i--) expected.add(key(i));
+        return expected;
+    }
+
+    @Test
+    void loadIssuesMergesPagesInSearchOrder() throws JiraException {
+        List<JiraIssue> issues = loadIssues();
+
+        // Una richiesta per pagina, compresa l'ultima con un solo issue, tutte con la dimensione ridotta dal server
+        assertEquals(List.of(0, 3, 6), searches.stream().map(query -> parameter(START_AT, query)).sorted().toList());
+        assertEquals(List.of(1000, 3, 3), searches.stream().map(query -> parameter(MAX_RESULTS, query)).sorted(Comparator.reverseOrder()).toList());
+        assertEquals(expectedKeys(), issues.stream().map(JiraIssue::getKey).toList());
+    }
+
+    @Test
+    void missingMaxResultsKeepsRequestedPageSize() throws JiraException {
+        pageSize = 1000;
+        declaredMaxResults = null;
+
+        List<JiraIssue> issues = loadIssues();
+
+        // Senza maxResults non si scende a una richiesta per issue
+        assertEquals(1, searches.size());
+        assertEquals(expectedKeys(), issues.stream().map(JiraIssue::getKey).toList());
+    }
+
+    @Test
+    void searchErrorIsReported() {
+        searchStatus = 500;
+
+        assertThrows(JiraException.class, () -> new Jira("proj", "", new HttpClientFetcher(), baseUrl));
+    }
+}